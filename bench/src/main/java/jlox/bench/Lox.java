@@ -0,0 +1,150 @@
+package jlox.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// The interpreter lives in the unnamed package, which named packages (and JMH
+// requires one) can't import. Each pipeline stage is bound once here through a
+// method handle, so the benchmarks still call straight into the stage itself.
+final class Lox {
+    private static final Class<?> ERROR_REPORTER = type("ErrorReporter");
+    private static final MethodHandle NEW_SCANNER = constructor("MyScanner", CharSequence.class, ERROR_REPORTER);
+    private static final MethodHandle NEW_BYTE_SCANNER = constructor("MyScanner", ByteBuffer.class, ERROR_REPORTER);
+    private static final MethodHandle SCAN_TOKENS = method("MyScanner", "scanTokens");
+    private static final MethodHandle NEW_PARSER = constructor("Parser", List.class, ERROR_REPORTER);
+    private static final MethodHandle PARSE = method("Parser", "parse");
+    private static final MethodHandle NEW_RESOLVER = constructor("Resolver", ERROR_REPORTER);
+    private static final MethodHandle RESOLVE = method("Resolver", "resolve", List.class);
+    private static final MethodHandle NEW_OPTIMIZER = constructor("Optimizer");
+    private static final MethodHandle OPTIMIZE = method("Optimizer", "optimize", List.class);
+    private static final MethodHandle NEW_INTERPRETER = constructor("Interpreter", ERROR_REPORTER);
+    private static final MethodHandle INTERPRET = method("Interpreter", "interpret", List.class);
+    private static final MethodHandle NEW_COMPILER = constructor("Compiler", ERROR_REPORTER);
+    private static final MethodHandle COMPILE = method("Compiler", "compile", List.class);
+    private static final MethodHandle NEW_VM = constructor("VM", ERROR_REPORTER);
+    private static final MethodHandle RUN_VM = method("VM", "interpret", type("VMFunction"));
+    private static final MethodHandle HAD_ERROR = method("ErrorReporter", "hadError");
+    // Every stage reports to this one, printing to standard error.
+    private static final Object ERRORS = errors();
+
+    private Lox() {}
+
+    static List<?> scan(String source) {
+        try {
+            return (List<?>) SCAN_TOKENS.invoke(NEW_SCANNER.invoke(source, ERRORS));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> scan(ByteBuffer utf8) {
+        try {
+            return (List<?>) SCAN_TOKENS.invoke(NEW_BYTE_SCANNER.invoke(utf8, ERRORS));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> parse(List<?> tokens) {
+        try {
+            return (List<?>) PARSE.invoke(NEW_PARSER.invoke(tokens, ERRORS));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void resolve(List<?> statements) {
+        try {
+            RESOLVE.invoke(NEW_RESOLVER.invoke(ERRORS), statements);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> optimize(List<?> statements) {
+        try {
+            return (List<?>) OPTIMIZE.invoke(NEW_OPTIMIZER.invoke(), statements);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void interpret(List<?> statements) {
+        try {
+            INTERPRET.invoke(NEW_INTERPRETER.invoke(ERRORS), statements);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object compile(List<?> statements) {
+        try {
+            return COMPILE.invoke(NEW_COMPILER.invoke(ERRORS), statements);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void runVm(Object script) {
+        try {
+            RUN_VM.invoke(NEW_VM.invoke(ERRORS), script);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    // Scanner, parser and resolver report errors to an ErrorReporter instead of throwing.
+    static boolean hadError() {
+        try {
+            return (boolean) HAD_ERROR.invoke(ERRORS);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Object errors() {
+        try {
+            return method("ErrorReporter", "standardError").invoke();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Interpreter class " + name + " is missing", e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type(owner).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(String owner, String name, Class<?>... parameters) {
+        try {
+            Method method = type(owner).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException runtime) return runtime;
+        if (e instanceof Error error) throw error;
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,147 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every program of the corpus through the whole MyScanner, Parser, Resolver,
+ * Interpreter pipeline and through each stage on its own. The stage benchmarks
+ * start from the output of the previous stage, prepared once per trial, except
+ * interpret: running a tree specializes its nodes, fills its inline caches and
+ * attaches compiled code bound to that run's globals, so every invocation
+ * interprets a tree of its own, the way a fresh run would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+public class PipelineBenchmark {
+    @Param({"fib", "binary_trees", "method_call", "string_concat", "instantiation", "equality", "zoo"})
+    String program;
+
+    private String source;
+    // The same source as UTF-8 outside the heap, the way a mapped file looks.
+    private ByteBuffer utf8;
+    private List<?> tokens;
+    private List<?> statements;
+    private List<?> optimized;
+    private Object script;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = load(program);
+        byte[] encoded = source.getBytes(StandardCharsets.UTF_8);
+        utf8 = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip();
+        tokens = Lox.scan(source);
+        statements = Lox.parse(tokens);
+        Lox.resolve(statements);
+        if (Lox.hadError()) throw new IllegalStateException(program + ".lox does not compile");
+        optimized = Lox.optimize(statements);
+        script = Lox.compile(optimized);
+
+        // Programs print their result; keep that out of the measurement output.
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public List<?> pipeline() {
+        List<?> parsed = Lox.parse(Lox.scan(source));
+        Lox.resolve(parsed);
+        List<?> program = Lox.optimize(parsed);
+        Lox.interpret(program);
+        return program;
+    }
+
+    @Benchmark
+    public List<?> scan() {
+        return Lox.scan(source);
+    }
+
+    @Benchmark
+    public List<?> scanBytes() {
+        return Lox.scan(utf8);
+    }
+
+    @Benchmark
+    public List<?> parse() {
+        return Lox.parse(tokens);
+    }
+
+    @Benchmark
+    public List<?> resolve() {
+        // Resolving annotates the nodes in place and gives the same answer every time.
+        Lox.resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public List<?> optimize() {
+        return Lox.optimize(statements);
+    }
+
+    @Benchmark
+    public List<?> interpret(FreshTree tree) {
+        Lox.interpret(tree.statements);
+        return tree.statements;
+    }
+
+    @Benchmark
+    public Object compile() {
+        return Lox.compile(optimized);
+    }
+
+    @Benchmark
+    public Object vm() {
+        Lox.runVm(script);
+        return script;
+    }
+
+    /** An optimized tree no run has touched yet, built outside the measurement. */
+    @State(Scope.Thread)
+    public static class FreshTree {
+        List<?> statements;
+
+        @Setup(Level.Invocation)
+        public void setUp(PipelineBenchmark benchmark) {
+            List<?> parsed = Lox.parse(benchmark.tokens);
+            Lox.resolve(parsed);
+            statements = Lox.optimize(parsed);
+        }
+    }
+
+    static String load(String program) throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/lox/" + program + ".lox")) {
+            if (in == null) throw new IOException("No benchmark program " + program + ".lox");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// The resolved syntax tree of a source file, kept next to it as foo.loxc so a
+// later run can skip scanning, parsing and resolving. The cache is keyed by the
+// SHA-256 of the source bytes: an edited source, a cache from another version
+// or a damaged cache is simply rebuilt. Failing to write one is not an error.
+final class AstCache {
+    static final String EXTENSION = ".loxc";
+
+    private final ByteBuffer source;
+    private final Path cacheFile;
+    private final byte[] hash;
+
+    private AstCache(ByteBuffer source, Path cacheFile, byte[] hash) {
+        this.source = source;
+        this.cacheFile = cacheFile;
+        this.hash = hash;
+    }
+
+    static AstCache open(Path file) throws IOException {
+        ByteBuffer source = map(file);
+        return new AstCache(source, cacheFile(file), sha256(source.duplicate()));
+    }
+
+    static Path cacheFile(Path file){
+        String name = file.getFileName().toString();
+        if(name.endsWith(".lox")) name = name.substring(0, name.length() - ".lox".length());
+        return file.resolveSibling(name + EXTENSION);
+    }
+
+    // The cached statements, or null when there is no usable cache.
+    List<Stmt> read(){
+        ByteBuffer bytes;
+        try {
+            bytes = map(cacheFile);
+        } catch (IOException e){
+            // Usually there is none yet.
+            return null;
+        }
+        return AstReader.read(bytes, hash);
+    }
+
+    // Scans the mapped source; only needed when read() came back empty.
+    MyScanner scanner(ErrorReporter errors){
+        return new MyScanner(source.duplicate(), errors);
+    }
+
+    // Only call with statements that parsed and resolved without errors.
+    void write(List<Stmt> statements){
+        byte[] bytes = AstWriter.write(hash, statements);
+        Path temp = null;
+        try {
+            // Written aside and moved into place, so a concurrent reader never sees half a file.
+            temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            try {
+                if(temp != null) Files.deleteIfExists(temp);
+            } catch (IOException ignored){
+            }
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    static byte[] sha256(ByteBuffer bytes){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Rebuilds the syntax tree an AstWriter serialized. Nodes go through their
+// constructors, so specialization state, inline caches and JIT profiles start
+// out fresh; only the resolver annotations are restored from the file.
+final class AstReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private final String[] strings;
+
+    private AstReader(ByteBuffer in, String[] strings) {
+        this.in = in;
+        this.strings = strings;
+    }
+
+    // The statements in a cache file, or null if it does not belong to a
+    // source with the given hash or was written by a different version.
+    static List<Stmt> read(ByteBuffer in, byte[] sourceHash){
+        try {
+            if(in.getInt() != AstWriter.MAGIC || in.getInt() != AstWriter.VERSION) return null;
+            byte[] hash = new byte[sourceHash.length];
+            in.get(hash);
+            if(!Arrays.equals(hash, sourceHash)) return null;
+
+            String[] strings = new String[in.getInt()];
+            for(int i = 0; i < strings.length; i++){
+                int length = in.getInt();
+                strings[i] = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+                in.position(in.position() + length);
+            }
+            AstReader reader = new AstReader(in, strings);
+            return reader.statements();
+        } catch (RuntimeException e){
+            // Truncated or otherwise damaged; the caller rebuilds it.
+            return null;
+        }
+    }
+
+    private List<Stmt> statements(){
+        int count = in.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            statements.add(stmt());
+        }
+        return statements;
+    }
+
+    private List<Expr> expressions(){
+        int count = in.getInt();
+        List<Expr> expressions = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            expressions.add(expr());
+        }
+        return expressions;
+    }
+
+    private Token token(){
+        TokenType type = TOKEN_TYPES[in.get()];
+        String lexeme = strings[in.getInt()];
+        int line = in.getInt();
+        Object literal = null;
+        if(type == TokenType.NUMBER || type == TokenType.STRING){
+            literal = value();
+        }
+        return new Token(type, lexeme, literal, line);
+    }
+
+    private Object value(){
+        int tag = in.get();
+        switch (tag){
+            case AstWriter.NIL_VALUE: return null;
+            case AstWriter.TRUE_VALUE: return true;
+            case AstWriter.FALSE_VALUE: return false;
+            case AstWriter.NUMBER_VALUE: return in.getDouble();
+            case AstWriter.STRING_VALUE: return strings[in.getInt()];
+        }
+        throw new IllegalStateException("Unknown value tag " + tag);
+    }
+
+    private Expr expr(){
+        int tag = in.get();
+        switch (tag){
+            case AstWriter.NULL: return null;
+            case AstWriter.BINARY: return new Expr.Binary(expr(), token(), expr());
+            case AstWriter.GROUPING: return new Expr.Grouping(expr());
+            case AstWriter.LITERAL: return new Expr.Literal(value());
+            case AstWriter.UNARY: return new Expr.Unary(token(), expr());
+            case AstWriter.VARIABLE: return variable();
+            case AstWriter.ASSIGN: {
+                Expr.Assign expr = new Expr.Assign(token(), expr());
+                expr.depth = in.getInt();
+                expr.slot = in.getInt();
+                return expr;
+            }
+            case AstWriter.LOGICAL: return new Expr.Logical(expr(), token(), expr());
+            case AstWriter.CALL: return new Expr.Call(expr(), token(), expressions());
+            case AstWriter.GET: return new Expr.Get(expr(), token());
+            case AstWriter.SET: return new Expr.Set(expr(), token(), expr());
+            case AstWriter.ARRAY: return new Expr.Array(token(), expressions());
+            case AstWriter.INDEX: return new Expr.Index(expr(), token(), expr());
+            case AstWriter.SET_INDEX: return new Expr.SetIndex(expr(), token(), expr(), expr());
+            case AstWriter.THIS: {
+                Expr.This expr = new Expr.This(token());
+                expr.depth = in.getInt();
+                expr.slot = in.getInt();
+                return expr;
+            }
+            case AstWriter.SUPER: {
+                Expr.Super expr = new Expr.Super(token(), token());
+                expr.depth = in.getInt();
+                expr.thisDepth = in.getInt();
+                return expr;
+            }
+        }
+        throw new IllegalStateException("Unknown expression tag " + tag);
+    }
+
+    private Expr.Variable variable(){
+        Expr.Variable expr = new Expr.Variable(token());
+        expr.depth = in.getInt();
+        expr.slot = in.getInt();
+        return expr;
+    }
+
+    private Stmt stmt(){
+        int tag = in.get();
+        switch (tag){
+            case AstWriter.NULL: return null;
+            case AstWriter.EXPRESSION: return new Stmt.Expression(expr());
+            case AstWriter.PRINT: return new Stmt.Print(expr());
+            case AstWriter.VAR: {
+                Stmt.Var stmt = new Stmt.Var(token(), expr());
+                stmt.slot = in.getInt();
+                return stmt;
+            }
+            case AstWriter.BLOCK: {
+                Stmt.Block stmt = new Stmt.Block(statements());
+                stmt.slotCount = in.getInt();
+                return stmt;
+            }
+            case AstWriter.IF: return new Stmt.If(expr(), stmt(), stmt());
+            case AstWriter.WHILE: return new Stmt.While(expr(), stmt());
+            case AstWriter.FOR: {
+                Stmt.For stmt = new Stmt.For(stmt(), expr(), expr(), stmt());
+                stmt.slotCount = in.getInt();
+                return stmt;
+            }
+            case AstWriter.FUNCTION: return function();
+            case AstWriter.RETURN: return new Stmt.Return(token(), expr());
+            case AstWriter.CLASS: {
+                Token name = token();
+                int count = in.getInt();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for(int i = 0; i < count; i++){
+                    methods.add(function());
+                }
+                Expr.Variable superclass = (Expr.Variable)expr();
+                Stmt.Class stmt = new Stmt.Class(name, methods, superclass);
+                stmt.slot = in.getInt();
+                return stmt;
+            }
+            // The ModuleLoader links the module again after loading.
+            case AstWriter.IMPORT: return new Stmt.Import(token(), token());
+        }
+        throw new IllegalStateException("Unknown statement tag " + tag);
+    }
+
+    private Stmt.Function function(){
+        Token name = token();
+        int count = in.getInt();
+        List<Token> params = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            params.add(token());
+        }
+        Stmt.Function stmt = new Stmt.Function(name, params, statements());
+        stmt.slot = in.getInt();
+        stmt.slotCount = in.getInt();
+        return stmt;
+    }
+}
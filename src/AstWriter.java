@@ -0,0 +1,377 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Serializes a resolved syntax tree for the AstCache. Every node is a one-byte
+// tag followed by its fields in declaration order, resolver annotations
+// included; tokens refer to a table of distinct strings written up front.
+// AstReader is the exact inverse, so the two change together.
+final class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4C4F5843; // "LOXC"
+    // Bump whenever a node, a field or the encoding changes.
+    static final int VERSION = 3;
+
+    static final int NULL = 0;
+    static final int BINARY = 1, GROUPING = 2, LITERAL = 3, UNARY = 4, VARIABLE = 5, ASSIGN = 6,
+            LOGICAL = 7, CALL = 8, GET = 9, SET = 10, THIS = 11, SUPER = 12,
+            ARRAY = 13, INDEX = 14, SET_INDEX = 15;
+    static final int EXPRESSION = 20, PRINT = 21, VAR = 22, BLOCK = 23, IF = 24, WHILE = 25,
+            FUNCTION = 26, RETURN = 27, CLASS = 28, IMPORT = 29, FOR = 30;
+    static final int NIL_VALUE = 0, TRUE_VALUE = 1, FALSE_VALUE = 2, NUMBER_VALUE = 3, STRING_VALUE = 4;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+
+    // The complete cache file: header, string table, then the statements.
+    static byte[] write(byte[] sourceHash, List<Stmt> statements){
+        AstWriter writer = new AstWriter();
+        try {
+            writer.out.writeInt(statements.size());
+            for(Stmt statement : statements){
+                writer.write(statement);
+            }
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(sourceHash);
+            out.writeInt(writer.strings.size());
+            for(String string : writer.strings){
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            writer.bytes.writeTo(out);
+            return file.toByteArray();
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(Stmt stmt){
+        if(stmt == null){
+            writeByte(NULL);
+        } else{
+            stmt.accept(this);
+        }
+    }
+
+    private void write(Expr expr){
+        if(expr == null){
+            writeByte(NULL);
+        } else{
+            expr.accept(this);
+        }
+    }
+
+    private void writeStatements(List<? extends Stmt> statements){
+        writeInt(statements.size());
+        for(Stmt statement : statements){
+            write(statement);
+        }
+    }
+
+    private void write(Token token){
+        writeByte(token.type.ordinal());
+        writeString(token.lexeme);
+        writeInt(token.line);
+        if(token.type == TokenType.NUMBER || token.type == TokenType.STRING){
+            writeValue(token.literal);
+        }
+    }
+
+    private void writeValue(Object value){
+        if(value == null){
+            writeByte(NIL_VALUE);
+        } else if(value instanceof Boolean){
+            writeByte((boolean)value ? TRUE_VALUE : FALSE_VALUE);
+        } else if(value instanceof Double){
+            writeByte(NUMBER_VALUE);
+            try {
+                out.writeDouble((double)value);
+            } catch (IOException e){
+                throw new IllegalStateException(e);
+            }
+        } else{
+            writeByte(STRING_VALUE);
+            writeString((String)value);
+        }
+    }
+
+    private void writeString(String string){
+        Integer index = stringIndex.get(string);
+        if(index == null){
+            index = strings.size();
+            strings.add(string);
+            stringIndex.put(string, index);
+        }
+        writeInt(index);
+    }
+
+    private void writeByte(int value){
+        try {
+            out.writeByte(value);
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeInt(int value){
+        try {
+            out.writeInt(value);
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        writeByte(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        writeByte(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        writeByte(LITERAL);
+        writeValue(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        writeByte(UNARY);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        writeByte(VARIABLE);
+        write(expr.name);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeByte(ASSIGN);
+        write(expr.name);
+        write(expr.value);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        writeByte(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        writeByte(CALL);
+        write(expr.callee);
+        write(expr.paren);
+        writeInt(expr.arguments.size());
+        for(Expr argument : expr.arguments){
+            write(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        writeByte(GET);
+        write(expr.object);
+        write(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        writeByte(SET);
+        write(expr.object);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        writeByte(ARRAY);
+        write(expr.bracket);
+        writeInt(expr.elements.size());
+        for(Expr element : expr.elements){
+            write(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        writeByte(INDEX);
+        write(expr.object);
+        write(expr.bracket);
+        write(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        writeByte(SET_INDEX);
+        write(expr.object);
+        write(expr.bracket);
+        write(expr.index);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        writeByte(THIS);
+        write(expr.keyword);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        writeByte(SUPER);
+        write(expr.keyword);
+        write(expr.method);
+        writeInt(expr.depth);
+        writeInt(expr.thisDepth);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        writeByte(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        writeByte(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        writeByte(VAR);
+        write(stmt.name);
+        write(stmt.initializer);
+        writeInt(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeByte(BLOCK);
+        writeStatements(stmt.statements);
+        writeInt(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        writeByte(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        writeByte(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        writeByte(FOR);
+        write(stmt.initializer);
+        write(stmt.condition);
+        write(stmt.increment);
+        write(stmt.body);
+        writeInt(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        writeByte(FUNCTION);
+        writeFunction(stmt);
+        return null;
+    }
+
+    private void writeFunction(Stmt.Function stmt){
+        write(stmt.name);
+        writeInt(stmt.params.size());
+        for(Token param : stmt.params){
+            write(param);
+        }
+        writeStatements(stmt.body);
+        writeInt(stmt.slot);
+        writeInt(stmt.slotCount);
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        writeByte(RETURN);
+        write(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        writeByte(CLASS);
+        write(stmt.name);
+        writeInt(stmt.methods.size());
+        for(Stmt.Function method : stmt.methods){
+            writeFunction(method);
+        }
+        write(stmt.superclass);
+        writeInt(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        writeByte(IMPORT);
+        write(stmt.keyword);
+        write(stmt.path);
+        return null;
+    }
+}
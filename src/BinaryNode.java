@@ -0,0 +1,288 @@
+// Self-specializing implementation of Expr.Binary. Every expression starts out
+// UNINITIALIZED, picks a node for the operand types it sees first and from then
+// on only rewrites itself towards a more general node, never back.
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+
+    private static final BinaryNode DOUBLE_ADD = new DoubleAdd();
+    private static final BinaryNode STRING_ADD = new StringAdd();
+    private static final BinaryNode GENERIC_ADD = new GenericAdd();
+    private static final BinaryNode SUBTRACT = new Subtract();
+    private static final BinaryNode MULTIPLY = new Multiply();
+    private static final BinaryNode DIVIDE = new Divide();
+    private static final BinaryNode GREATER = new Greater();
+    private static final BinaryNode GREATER_EQUAL = new GreaterEqual();
+    private static final BinaryNode LESS = new Less();
+    private static final BinaryNode LESS_EQUAL = new LessEqual();
+    private static final BinaryNode DOUBLE_EQUAL = new DoubleEqual(false);
+    private static final BinaryNode DOUBLE_NOT_EQUAL = new DoubleEqual(true);
+    private static final BinaryNode GENERIC_EQUAL = new GenericEqual(false);
+    private static final BinaryNode GENERIC_NOT_EQUAL = new GenericEqual(true);
+
+    Object execute(Interpreter interpreter, Expr.Binary expr){
+        Object left = interpreter.evaluate(expr.left);
+        Object right = interpreter.evaluate(expr.right);
+        return apply(expr, left, right);
+    }
+
+    // Unboxed entry point used when the parent expects a number.
+    double executeDouble(Interpreter interpreter, Expr.Binary expr){
+        return expectDouble(execute(interpreter, expr));
+    }
+
+    abstract Object apply(Expr.Binary expr, Object left, Object right);
+
+    static double expectDouble(Object value){
+        if(value instanceof Double) return (double)value;
+        throw new UnexpectedResult(value);
+    }
+
+    // Operands were already evaluated, so the replacement finishes this execution.
+    static Object rewrite(Expr.Binary expr, BinaryNode node, Object left, Object right){
+        expr.node = node;
+        return node.apply(expr, left, right);
+    }
+
+    static RuntimeError numberOperandsError(Expr.Binary expr){
+        return new RuntimeError("Operands must be numbers.", expr.operator);
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            boolean numbers = left instanceof Double && right instanceof Double;
+            switch (expr.operator.type){
+                case PLUS:
+                    if(numbers) return rewrite(expr, DOUBLE_ADD, left, right);
+                    if(LoxString.isString(left) && LoxString.isString(right)){
+                        return rewrite(expr, STRING_ADD, left, right);
+                    }
+                    return rewrite(expr, GENERIC_ADD, left, right);
+                case MINUS: return rewrite(expr, SUBTRACT, left, right);
+                case STAR: return rewrite(expr, MULTIPLY, left, right);
+                case SLASH: return rewrite(expr, DIVIDE, left, right);
+                case GREATER: return rewrite(expr, GREATER, left, right);
+                case GREATER_EQUAL: return rewrite(expr, GREATER_EQUAL, left, right);
+                case LESS: return rewrite(expr, LESS, left, right);
+                case LESS_EQUAL: return rewrite(expr, LESS_EQUAL, left, right);
+                case EQUAL_EQUAL:
+                    return rewrite(expr, numbers ? DOUBLE_EQUAL : GENERIC_EQUAL, left, right);
+                case BANG_EQUAL:
+                    return rewrite(expr, numbers ? DOUBLE_NOT_EQUAL : GENERIC_NOT_EQUAL, left, right);
+            }
+            throw new IllegalStateException("Unexpected binary operator " + expr.operator.type);
+        }
+    }
+
+    private static final class DoubleAdd extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedResult result){
+                return result.value;
+            }
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            double left;
+            try {
+                left = interpreter.evaluateDouble(expr.left);
+            } catch (UnexpectedResult result){
+                return expectDouble(rewrite(expr, GENERIC_ADD, result.value, interpreter.evaluate(expr.right)));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(expr.right);
+            } catch (UnexpectedResult result){
+                return expectDouble(rewrite(expr, GENERIC_ADD, left, result.value));
+            }
+            return left + right;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double){
+                return (double)left + (double)right;
+            }
+            return rewrite(expr, GENERIC_ADD, left, right);
+        }
+    }
+
+    private static final class StringAdd extends BinaryNode {
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if(LoxString.isString(left) && LoxString.isString(right)){
+                return LoxString.concat(left, right);
+            }
+            return rewrite(expr, GENERIC_ADD, left, right);
+        }
+    }
+
+    private static final class GenericAdd extends BinaryNode {
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double){
+                return (double)left + (double)right;
+            } else if (LoxString.isString(left) && LoxString.isString(right)) {
+                return LoxString.concat(left, right);
+            }
+            throw new RuntimeError("Operands must be two numbers or two strings.", expr.operator);
+        }
+    }
+
+    // The remaining arithmetic and comparison operators only accept numbers,
+    // so their first specialization is already the most general one. Their
+    // operands are evaluated unboxed; anything else is the operator's type error,
+    // raised only after both operands were evaluated, as on the boxed path.
+    private abstract static class Arithmetic extends BinaryNode {
+        abstract double compute(double left, double right);
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return executeDouble(interpreter, expr);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            return compute(leftOperand(interpreter, expr), rightOperand(interpreter, expr));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double) return compute((double)left, (double)right);
+            throw numberOperandsError(expr);
+        }
+    }
+
+    private abstract static class Comparison extends BinaryNode {
+        abstract boolean compare(double left, double right);
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return compare(leftOperand(interpreter, expr), rightOperand(interpreter, expr));
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double) return compare((double)left, (double)right);
+            throw numberOperandsError(expr);
+        }
+    }
+
+    static double leftOperand(Interpreter interpreter, Expr.Binary expr){
+        try {
+            return interpreter.evaluateDouble(expr.left);
+        } catch (UnexpectedResult result){
+            interpreter.evaluate(expr.right);
+            throw numberOperandsError(expr);
+        }
+    }
+
+    static double rightOperand(Interpreter interpreter, Expr.Binary expr){
+        try {
+            return interpreter.evaluateDouble(expr.right);
+        } catch (UnexpectedResult result){
+            throw numberOperandsError(expr);
+        }
+    }
+
+    private static final class Subtract extends Arithmetic {
+        @Override
+        double compute(double left, double right) {
+            return left - right;
+        }
+    }
+
+    private static final class Multiply extends Arithmetic {
+        @Override
+        double compute(double left, double right) {
+            return left * right;
+        }
+    }
+
+    private static final class Divide extends Arithmetic {
+        @Override
+        double compute(double left, double right) {
+            return left / right;
+        }
+    }
+
+    private static final class Greater extends Comparison {
+        @Override
+        boolean compare(double left, double right) {
+            return left > right;
+        }
+    }
+
+    private static final class GreaterEqual extends Comparison {
+        @Override
+        boolean compare(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    private static final class Less extends Comparison {
+        @Override
+        boolean compare(double left, double right) {
+            return left < right;
+        }
+    }
+
+    private static final class LessEqual extends Comparison {
+        @Override
+        boolean compare(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    private static final class DoubleEqual extends BinaryNode {
+        private final boolean negate;
+
+        DoubleEqual(boolean negate) {
+            this.negate = negate;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            BinaryNode generic = negate ? GENERIC_NOT_EQUAL : GENERIC_EQUAL;
+            double left;
+            try {
+                left = interpreter.evaluateDouble(expr.left);
+            } catch (UnexpectedResult result){
+                return rewrite(expr, generic, result.value, interpreter.evaluate(expr.right));
+            }
+            double right;
+            try {
+                right = interpreter.evaluateDouble(expr.right);
+            } catch (UnexpectedResult result){
+                return rewrite(expr, generic, left, result.value);
+            }
+            return (Double.doubleToLongBits(left) == Double.doubleToLongBits(right)) != negate;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double){
+                // Same semantics as Double.equals, which isEqual relies on: NaN == NaN, 0.0 != -0.0.
+                boolean equal = Double.doubleToLongBits((double)left) == Double.doubleToLongBits((double)right);
+                return equal != negate;
+            }
+            return rewrite(expr, negate ? GENERIC_NOT_EQUAL : GENERIC_EQUAL, left, right);
+        }
+    }
+
+    private static final class GenericEqual extends BinaryNode {
+        private final boolean negate;
+
+        GenericEqual(boolean negate) {
+            this.negate = negate;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right) != negate;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Output that encodes printed lines into one large buffer and hands it to a
+// channel only when it fills up or on flush. Whole numbers, the common case,
+// are formatted straight into the buffer without creating any objects.
+final class ChannelOutput implements Output {
+    private static final int CAPACITY = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(CAPACITY);
+    private final CharsetEncoder encoder;
+    // Whether chars below 0x80 encode as the byte of the same value.
+    private final boolean ascii;
+    private final byte[] digits = new byte[20];
+
+    ChannelOutput(WritableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.ascii = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    // Writes through System.out, so it stays in order with the rest of what goes there.
+    static ChannelOutput standardOutput(){
+        return new ChannelOutput(Channels.newChannel(System.out), System.out.charset());
+    }
+
+    @Override
+    public synchronized void println(Object value) {
+        if(!(value instanceof Double number && writeWhole(number))){
+            write(Interpreter.stringify(value));
+        }
+        write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public synchronized void flush() {
+        buffer.flip();
+        try {
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        } catch (IOException e){
+            // Like System.out, a closed or broken pipe silently drops output.
+        }
+        buffer.clear();
+    }
+
+    // Whole numbers below 1e7 print as plain digits; Double.toString switches
+    // to exponents from there on and fractions need its rounding rules.
+    private boolean writeWhole(double value){
+        if(value != Math.rint(value) || Math.abs(value) >= 1e7) return false;
+        if(buffer.remaining() < digits.length) flush();
+        long whole = (long) value;
+        // stringify gives "-0" for negative zero.
+        if(Double.doubleToRawLongBits(value) < 0) buffer.put((byte) '-');
+        whole = Math.abs(whole);
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while(whole != 0);
+        while(count > 0){
+            buffer.put(digits[--count]);
+        }
+        return true;
+    }
+
+    private void write(String text){
+        int length = text.length();
+        for(int i = 0; i < length; i++){
+            char c = text.charAt(i);
+            if(!ascii || c >= 0x80){
+                encode(CharBuffer.wrap(text, i, length));
+                return;
+            }
+            if(!buffer.hasRemaining()) flush();
+            buffer.put((byte) c);
+        }
+    }
+
+    private void encode(CharBuffer chars){
+        encoder.reset();
+        while(encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW){
+            flush();
+        }
+        while(encoder.flush(buffer) == CoderResult.OVERFLOW){
+            flush();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled instruction stream together with its constant pool and
+// the source line of every byte, used for runtime error reporting.
+public class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int b, int line){
+        if(count == code.length){
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    // Numbers and strings are shared within a chunk, functions always get their own entry.
+    int addConstant(Object value){
+        if(value instanceof Double || value instanceof String){
+            Integer index = constantIndex.get(value);
+            if(index != null) return index;
+            constantIndex.put(value, constantList.size());
+        }
+        constantList.add(value);
+        return constantList.size() - 1;
+    }
+
+    int constantCount(){
+        return constantList.size();
+    }
+
+    void seal(){
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the JVM class file format for the Jit: one class with a
+// constant pool and methods with a Code attribute. Written as version 49 so the
+// verifier infers stack frames itself and no StackMapTable has to be emitted.
+final class ClassFile {
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+    }
+
+    int thisClass(){
+        return thisClass;
+    }
+
+    int utf8(String value){
+        return entry("U" + value, 1, out -> out.writeUTF(value), 1);
+    }
+
+    int classRef(String name){
+        int utf8 = utf8(name);
+        return entry("C" + name, 7, out -> out.writeShort(utf8), 1);
+    }
+
+    int doubleConstant(double value){
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, 6, out -> out.writeLong(bits), 2);
+    }
+
+    int methodRef(String owner, String name, String descriptor){
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    int fieldRef(String owner, String name, String descriptor){
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(int owner, String name, String descriptor){
+        int nameAndType = nameAndType(name, descriptor);
+        return entry("M" + owner + "." + name + descriptor, 10, out -> {
+            out.writeShort(owner);
+            out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor){
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return entry("R" + tag + owner + "." + name + descriptor, tag, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    private int nameAndType(String name, String descriptor){
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return entry("N" + name + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        }, 1);
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int tag, EntryWriter writer, int size){
+        Integer existing = poolIndex.get(key);
+        if(existing != null) return existing;
+        try {
+            poolOut.writeByte(tag);
+            writer.write(poolOut);
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        int index = poolCount;
+        poolCount += size;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    void method(String name, String descriptor, Code code){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(code.length);
+            out.write(code.bytes, 0, code.length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+            methods.add(bytes.toByteArray());
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] toBytes(){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for(byte[] method : methods){
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // A forward or backward jump target inside one Code body.
+    static final class Label {
+        private int position = -1;
+        private final List<Integer> uses = new ArrayList<>();
+    }
+
+    // Bytecode of one method. Tracks the operand stack depth as instructions are
+    // appended, the way Compiler does for the VM, to compute max_stack.
+    static final class Code {
+        private byte[] bytes = new byte[64];
+        private int length;
+        private int stack;
+        int maxStack;
+        int maxLocals;
+
+        int length(){
+            return length;
+        }
+
+        void op(int opcode, int stackEffect){
+            writeByte(opcode);
+            adjust(stackEffect);
+        }
+
+        void op1(int opcode, int operand, int stackEffect){
+            writeByte(opcode);
+            writeByte(operand);
+            adjust(stackEffect);
+        }
+
+        void op2(int opcode, int operand, int stackEffect){
+            writeByte(opcode);
+            writeShort(operand);
+            adjust(stackEffect);
+        }
+
+        void jump(int opcode, Label target, int stackEffect){
+            int at = length;
+            writeByte(opcode);
+            if(target.position >= 0){
+                writeShort(target.position - at);
+            } else{
+                target.uses.add(at);
+                writeShort(0);
+            }
+            adjust(stackEffect);
+        }
+
+        void mark(Label label){
+            label.position = length;
+            for(int use : label.uses){
+                int offset = label.position - use;
+                bytes[use + 1] = (byte)(offset >> 8);
+                bytes[use + 2] = (byte)offset;
+            }
+            label.uses.clear();
+        }
+
+        // Control does not fall through a goto, return or athrow; code after it
+        // starts with whatever depth the branches into it agree on.
+        void setStack(int depth){
+            stack = depth;
+        }
+
+        int stack(){
+            return stack;
+        }
+
+        // Branch offsets are relative, so already patched code can be appended as is.
+        void append(Code other){
+            ensure(other.length);
+            System.arraycopy(other.bytes, 0, bytes, length, other.length);
+            length += other.length;
+            maxStack = Math.max(maxStack, other.maxStack);
+            maxLocals = Math.max(maxLocals, other.maxLocals);
+        }
+
+        private void adjust(int stackEffect){
+            stack += stackEffect;
+            if(stack > maxStack) maxStack = stack;
+        }
+
+        private void writeByte(int value){
+            ensure(1);
+            bytes[length++] = (byte)value;
+        }
+
+        private void writeShort(int value){
+            ensure(2);
+            bytes[length++] = (byte)(value >> 8);
+            bytes[length++] = (byte)value;
+        }
+
+        private void ensure(int extra){
+            if(length + extra > bytes.length){
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import java.util.List;
+
+// Thrown by LoxEngine when a script or one of its modules doesn't compile.
+// Carries every error reported, formatted the way the command line prints them.
+final class CompileError extends Exception {
+    final List<String> messages;
+
+    CompileError(List<String> messages) {
+        super(String.join("\n", messages), null, false, false);
+        this.messages = List.copyOf(messages);
+    }
+}
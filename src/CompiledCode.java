@@ -0,0 +1,159 @@
+// Base class of the hidden classes generated by Jit. A function compiles to an
+// override of call, a loop to an override of run; both only ever see numbers.
+// The helpers below are what generated code calls for anything beyond plain
+// arithmetic, and each of them throws Deoptimize instead of failing.
+abstract class CompiledCode {
+    private final Object[] constants;
+    private final Environment globals;
+    // The declaration a compiled function was generated from, null for loops.
+    private final Stmt.Function function;
+    // How many scopes out from the one it runs in a loop writes variables back
+    // to: -1 for none, Integer.MAX_VALUE if it writes globals. Functions never
+    // write outside their own frame.
+    final int reach;
+
+    CompiledCode(Object[] constants, Environment globals, Stmt.Function function, int reach) {
+        this.constants = constants;
+        this.globals = globals;
+        this.function = function;
+        this.reach = reach;
+    }
+
+    // Runs a compiled function body; closure is the enclosing environment.
+    double call(Environment closure, double[] arguments){
+        throw new IllegalStateException("Not a compiled function.");
+    }
+
+    // Entry points for functions of up to four parameters, which take their
+    // arguments without an array. Only the one for the function's arity is generated.
+    double call0(Environment closure){
+        throw new IllegalStateException("Not a compiled function of no parameters.");
+    }
+
+    double call1(Environment closure, double a){
+        throw new IllegalStateException("Not a compiled function of one parameter.");
+    }
+
+    double call2(Environment closure, double a, double b){
+        throw new IllegalStateException("Not a compiled function of two parameters.");
+    }
+
+    double call3(Environment closure, double a, double b, double c){
+        throw new IllegalStateException("Not a compiled function of three parameters.");
+    }
+
+    double call4(Environment closure, double a, double b, double c, double d){
+        throw new IllegalStateException("Not a compiled function of four parameters.");
+    }
+
+    // Runs the remaining iterations of a compiled loop in the given environment.
+    void run(Environment environment){
+        throw new IllegalStateException("Not a compiled loop.");
+    }
+
+    // Converts call arguments for call; null if one of them is not a number.
+    static double[] numbers(Object[] arguments){
+        double[] numbers = new double[arguments.length];
+        for(int i = 0; i < numbers.length; i++){
+            if(!(arguments[i] instanceof Double)) return null;
+            numbers[i] = (double)arguments[i];
+        }
+        return numbers;
+    }
+
+    final double loadLocal(Environment environment, int distance, int slot){
+        try {
+            return environment.getDoubleAt(distance, slot);
+        } catch (UnexpectedResult result){
+            throw Deoptimize.INSTANCE;
+        }
+    }
+
+    final void storeLocal(Environment environment, int distance, int slot, double value){
+        environment.assignDoubleAt(distance, slot, value);
+    }
+
+    // Whether tasks may assign variables while compiled code runs, see Jit.reloadPoint.
+    final boolean shared(){
+        return globals.shared;
+    }
+
+    final double loadGlobal(int constant){
+        Object value = global(constant);
+        if(value instanceof Double) return (double)value;
+        throw Deoptimize.INSTANCE;
+    }
+
+    final void storeGlobal(int constant, double value){
+        globals.assign((Token)constants[constant], value);
+    }
+
+    // Direct recursion in compiled code passes on its own closure. That is only
+    // right while the global name still refers to the function being compiled,
+    // which, being global itself, then has the same closure.
+    final void checkSelf(int constant){
+        if(!(global(constant) instanceof LoxFunction callee) || callee.declaration != function){
+            throw Deoptimize.INSTANCE;
+        }
+    }
+
+    // Calls another global function, which has to be compiled (or compilable)
+    // too. Calls of up to four arguments go to the entry point for their count.
+    final double callGlobal(int constant, double[] arguments){
+        LoxFunction callee = callee(constant, arguments.length);
+        return compiled(callee).call(callee.closure, arguments);
+    }
+
+    final double callGlobal0(int constant){
+        LoxFunction callee = callee(constant, 0);
+        return compiled(callee).call0(callee.closure);
+    }
+
+    final double callGlobal1(int constant, double a){
+        LoxFunction callee = callee(constant, 1);
+        return compiled(callee).call1(callee.closure, a);
+    }
+
+    final double callGlobal2(int constant, double a, double b){
+        LoxFunction callee = callee(constant, 2);
+        return compiled(callee).call2(callee.closure, a, b);
+    }
+
+    final double callGlobal3(int constant, double a, double b, double c){
+        LoxFunction callee = callee(constant, 3);
+        return compiled(callee).call3(callee.closure, a, b, c);
+    }
+
+    final double callGlobal4(int constant, double a, double b, double c, double d){
+        LoxFunction callee = callee(constant, 4);
+        return compiled(callee).call4(callee.closure, a, b, c, d);
+    }
+
+    private LoxFunction callee(int constant, int arity){
+        if(!(global(constant) instanceof LoxFunction callee) || !callee.isPlainFunction()
+                || callee.arity() != arity){
+            throw Deoptimize.INSTANCE;
+        }
+        return callee;
+    }
+
+    private CompiledCode compiled(LoxFunction callee){
+        JitProfile profile = callee.declaration.profile;
+        CompiledCode code = profile.code;
+        if(code == null){
+            if(profile.isDisabled()) throw Deoptimize.INSTANCE;
+            code = profile.install(Jit.compile(callee.declaration, globals));
+            if(code == null) throw Deoptimize.INSTANCE;
+        }
+        return code;
+    }
+
+    private Object global(int constant){
+        Token name = (Token)constants[constant];
+        try {
+            return globals.get(name);
+        } catch (RuntimeError error){
+            throw Deoptimize.INSTANCE;
+        }
+    }
+}
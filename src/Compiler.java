@@ -0,0 +1,623 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Lowers resolved Stmt/Expr trees into bytecode for the VM. Locals live in
+// operand-stack slots of their call frame, captured locals become upvalues.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VMFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+
+        FunctionState(FunctionState enclosing, VMFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    private FunctionState current;
+    private int line = 1;
+    private final ErrorReporter errors;
+    // Reads of natives the VM can't run, see Natives.INTERPRETER_ONLY, and the
+    // globals the program defines or assigns. A read is only an error if the
+    // program never rebinds the name, so it has to be the native.
+    private final List<Token> interpreterOnlyReads = new ArrayList<>();
+    private final Set<String> reboundGlobals = new HashSet<>();
+
+    Compiler(ErrorReporter errors) {
+        this.errors = errors;
+    }
+
+    VMFunction compile(List<Stmt> statements){
+        VMFunction script = compileScript(new VMFunction(null), statements);
+        for(Token name : interpreterOnlyReads){
+            if(!reboundGlobals.contains(name.lexeme)){
+                errors.error(name, "Can't use " + name.lexeme + " in the VM, it needs the tree-walking interpreter.");
+            }
+        }
+        return script;
+    }
+
+    private VMFunction compileScript(VMFunction script, List<Stmt> statements){
+        current = new FunctionState(null, script, FunctionType.NONE);
+        // Slot 0 of every frame holds the callee (or receiver) before any code runs.
+        addLocal("");
+        adjustStack(1);
+        for(Stmt statement : statements){
+            compile(statement);
+        }
+        return endFunction();
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        Module module = stmt.module;
+        // A module compiles to a script function of its own, once per module.
+        // It is recorded first, so modules importing each other terminate.
+        if(module.script == null){
+            FunctionState enclosing = current;
+            int enclosingLine = line;
+            module.script = new VMFunction(null);
+            compileScript(module.script, module.statements);
+            current = enclosing;
+            line = enclosingLine;
+        }
+        line = stmt.keyword.line;
+        emitWithShort(OpCode.IMPORT, makeConstant(module.script), 1);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if(stmt.initializer != null){
+            compile(stmt.initializer);
+        } else{
+            emit(OpCode.NIL, 1);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt statement : stmt.statements){
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+        if(stmt.elseBranch == null){
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(OpCode.JUMP, 0);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope();
+        if(stmt.initializer != null) compile(stmt.initializer);
+        loop(stmt.condition, stmt.body, stmt.increment);
+        endScope();
+        return null;
+    }
+
+    private void loop(Expr condition, Stmt body, Expr increment){
+        int loopStart = current.function.chunk.count;
+        // The Optimizer leaves literal conditions only where they are true, as in "while(true)".
+        if(condition == null || condition instanceof Expr.Literal
+                && Interpreter.isTruthy(((Expr.Literal) condition).value)){
+            compile(body);
+            compileIncrement(increment);
+            emitLoop(loopStart);
+            return;
+        }
+        compile(condition);
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+        compile(body);
+        compileIncrement(increment);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+    }
+
+    private void compileIncrement(Expr increment){
+        if(increment == null) return;
+        compile(increment);
+        emit(OpCode.POP, -1);
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        // A local function is in scope inside its own body so it can recurse.
+        if(current.scopeDepth > 0) addLocal(stmt.name.lexeme);
+        function(stmt, FunctionType.FUNCTION);
+        if(current.scopeDepth == 0) defineGlobal(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if(current.type == FunctionType.INITIALIZER){
+            emitWithByte(OpCode.GET_LOCAL, 0, 1);
+        } else if(stmt.value instanceof Expr.Call){
+            // The VM reuses this frame for the call when it can; the RETURN
+            // after it only runs when the callee was a class or a native.
+            Expr.Call call = (Expr.Call) stmt.value;
+            compile(call.callee);
+            for(Expr argument : call.arguments){
+                compile(argument);
+            }
+            line = call.paren.line;
+            emitWithByte(OpCode.TAIL_CALL, call.arguments.size(), -call.arguments.size());
+        } else if(stmt.value != null){
+            compile(stmt.value);
+        } else{
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        emitWithShort(OpCode.CLASS, identifierConstant(stmt.name), 1);
+        defineVariable(stmt.name);
+
+        if(stmt.superclass != null){
+            compile(stmt.superclass);
+            beginScope();
+            addLocal("super");
+            loadVariable(stmt.name);
+            line = stmt.superclass.name.line;
+            emit(OpCode.INHERIT, -1);
+        }
+
+        loadVariable(stmt.name);
+        for(Stmt.Function method : stmt.methods){
+            line = method.name.line;
+            FunctionType type = method.name.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emitWithShort(OpCode.METHOD, identifierConstant(method.name), -1);
+        }
+        emit(OpCode.POP, -1);
+
+        if(stmt.superclass != null) endScope();
+        return null;
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        FunctionState enclosing = current;
+        current = new FunctionState(enclosing, new VMFunction(stmt.name.lexeme), type);
+        current.function.arity = stmt.params.size();
+        beginScope();
+        addLocal(type == FunctionType.FUNCTION ? "" : "this");
+        for(Token param : stmt.params){
+            addLocal(param.lexeme);
+        }
+        adjustStack(1 + stmt.params.size());
+        for(Stmt statement : stmt.body){
+            compile(statement);
+        }
+        FunctionState compiled = current;
+        VMFunction function = endFunction();
+
+        emitWithShort(OpCode.CLOSURE, makeConstant(function), 1);
+        for(Upvalue upvalue : compiled.upvalues){
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitByte(upvalue.index);
+        }
+    }
+
+    private VMFunction endFunction(){
+        emitReturn();
+        VMFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.seal();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void emitReturn(){
+        if(current.type == FunctionType.INITIALIZER){
+            emitWithByte(OpCode.GET_LOCAL, 0, 1);
+        } else{
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type){
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, -1); break;
+            case GREATER: emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, -1); break;
+            case MINUS: emit(OpCode.SUBTRACT, -1); break;
+            case PLUS: emit(OpCode.ADD, -1); break;
+            case SLASH: emit(OpCode.DIVIDE, -1); break;
+            case STAR: emit(OpCode.MULTIPLY, -1); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null){
+            emit(OpCode.NIL, 1);
+        } else if(expr.value == Boolean.TRUE){
+            emit(OpCode.TRUE, 1);
+        } else if(expr.value == Boolean.FALSE){
+            emit(OpCode.FALSE, 1);
+        } else{
+            emitWithShort(OpCode.CONSTANT, makeConstant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type){
+            case BANG: emit(OpCode.NOT, 0); break;
+            case MINUS: emit(OpCode.NEGATE, 0); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if(expr.depth < 0){
+            getGlobal(expr.name);
+        } else{
+            loadVariable(expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        if(expr.depth < 0){
+            reboundGlobals.add(expr.name.lexeme);
+            emitWithShort(OpCode.SET_GLOBAL, identifierConstant(expr.name), 0);
+            return null;
+        }
+        int slot = resolveLocal(current, expr.name.lexeme);
+        if(slot != -1){
+            emitWithByte(OpCode.SET_LOCAL, slot, 0);
+        } else{
+            emitWithByte(OpCode.SET_UPVALUE, resolveUpvalue(current, expr.name), 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        byte op = expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE;
+        int endJump = emitJump(op, 0);
+        emit(OpCode.POP, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for(Expr argument : expr.arguments){
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emitWithByte(OpCode.CALL, expr.arguments.size(), -expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitWithShort(OpCode.GET_PROPERTY, identifierConstant(expr.name), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitWithShort(OpCode.SET_PROPERTY, identifierConstant(expr.name), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for(Expr element : expr.elements){
+            compile(element);
+        }
+        line = expr.bracket.line;
+        emitWithShort(OpCode.ARRAY, expr.elements.size(), 1 - expr.elements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket.line;
+        emit(OpCode.GET_INDEX, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        line = expr.bracket.line;
+        emit(OpCode.SET_INDEX, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        loadVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        loadVariable(new Token(TokenType.THIS, "this", null, line));
+        loadVariable(expr.keyword);
+        line = expr.method.line;
+        emitWithShort(OpCode.GET_SUPER, identifierConstant(expr.method), -1);
+        return null;
+    }
+
+    private void defineVariable(Token name){
+        if(current.scopeDepth > 0){
+            // The value already sits in the new local's stack slot.
+            addLocal(name.lexeme);
+            return;
+        }
+        defineGlobal(name);
+    }
+
+    private void defineGlobal(Token name){
+        reboundGlobals.add(name.lexeme);
+        emitWithShort(OpCode.DEFINE_GLOBAL, identifierConstant(name), -1);
+    }
+
+    private void loadVariable(Token name){
+        int slot = resolveLocal(current, name.lexeme);
+        if(slot != -1){
+            emitWithByte(OpCode.GET_LOCAL, slot, 1);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name);
+        if(upvalue != -1){
+            emitWithByte(OpCode.GET_UPVALUE, upvalue, 1);
+        } else{
+            getGlobal(name);
+        }
+    }
+
+    private void getGlobal(Token name){
+        if(Natives.INTERPRETER_ONLY.contains(name.lexeme)) interpreterOnlyReads.add(name);
+        emitWithShort(OpCode.GET_GLOBAL, identifierConstant(name), 1);
+    }
+
+    private int resolveLocal(FunctionState state, String name){
+        for(int i = state.locals.size() - 1; i >= 0; i--){
+            if(state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name){
+        if(state.enclosing == null) return -1;
+        int local = resolveLocal(state.enclosing, name.lexeme);
+        if(local != -1){
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true, name);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if(upvalue != -1) return addUpvalue(state, upvalue, false, name);
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token name){
+        for(int i = 0; i < state.upvalues.size(); i++){
+            Upvalue upvalue = state.upvalues.get(i);
+            if(upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        if(state.upvalues.size() == 256){
+            errors.error(name, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void addLocal(String name){
+        if(current.locals.size() == 256){
+            errors.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while(!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth){
+            if(locals.get(locals.size() - 1).isCaptured){
+                emit(OpCode.CLOSE_UPVALUE, -1);
+            } else{
+                emit(OpCode.POP, -1);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private int identifierConstant(Token name){
+        return makeConstant(name.lexeme);
+    }
+
+    private int makeConstant(Object value){
+        int index = current.function.chunk.addConstant(value);
+        if(index > 0xffff){
+            errors.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emitByte(int b){
+        current.function.chunk.write(b, line);
+    }
+
+    private void emitShort(int value){
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void emit(byte op, int stackEffect){
+        emitByte(op);
+        adjustStack(stackEffect);
+    }
+
+    private void emitWithByte(byte op, int operand, int stackEffect){
+        emit(op, stackEffect);
+        emitByte(operand);
+    }
+
+    private void emitWithShort(byte op, int operand, int stackEffect){
+        emit(op, stackEffect);
+        emitShort(operand);
+    }
+
+    private void adjustStack(int effect){
+        current.stackDepth += effect;
+        if(current.stackDepth > current.function.maxStack){
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private int emitJump(byte op, int stackEffect){
+        emit(op, stackEffect);
+        emitShort(0xffff);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset){
+        Chunk chunk = current.function.chunk;
+        int jump = chunk.count - offset - 2;
+        if(jump > 0xffff){
+            errors.error(line, "Too much code to jump over.");
+        }
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart){
+        emit(OpCode.LOOP, 0);
+        int offset = current.function.chunk.count - loopStart + 2;
+        if(offset > 0xffff) errors.error(line, "Loop body too large.");
+        emitShort(offset);
+    }
+}
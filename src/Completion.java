@@ -0,0 +1,10 @@
+// How a statement run by the Interpreter finished. A return statement leaves
+// its value in the Interpreter and completes with RETURN, which every enclosing
+// statement passes up unchanged until the call running the function body.
+// "return f(...)" with a Lox function as f completes with TAIL_CALL instead and
+// leaves the call for LoxFunction.invoke to run in place of the finished one.
+enum Completion {
+    NORMAL,
+    RETURN,
+    TAIL_CALL
+}
@@ -0,0 +1,10 @@
+// Thrown by Jit-compiled code when one of the assumptions it was compiled
+// under no longer holds. Compiled code has no side effects, so whoever entered
+// it just runs the same function call or loop again in the tree-walker.
+public class Deoptimize extends RuntimeException{
+    static final Deoptimize INSTANCE = new Deoptimize();
+
+    private Deoptimize(){
+        super(null,null,false,false);
+    }
+}
@@ -1,30 +1,84 @@
-import java.util.HashMap;
+import java.lang.invoke.VarHandle;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 public class Environment {
     final Environment enclosing;
+    // Name-keyed storage is only used by the global scope (and therefore the REPL),
+    // every local scope is a fixed-size slot array laid out by the Resolver.
+    // Spawned tasks share the globals, hence the concurrent map; it can't hold
+    // null, so a nil global is stored as NIL.
+    private final Map<Symbol, Object> values;
+    private static final Object NIL = new Object();
+    private final Object[] slots;
+    // Numbers stored through the unboxed paths live here, with UNBOXED left in
+    // the matching Object slot. Allocated on the first such store. A spawned
+    // task may read a scope another thread is storing to, so the array is
+    // allocated under the lock and the number is fenced in before UNBOXED.
+    private double[] doubles;
+    private static final Object UNBOXED = new Object();
+    // The interpreter that created a local scope; parallel workers only assign
+    // variables in scopes of their own. Null for the globals.
+    final Interpreter owner;
+    // Set on the globals once the run has spawned a task or a parallel worker.
+    // From then on compiled code reads cached variables again (see Jit) and
+    // instance fields are accessed under the instance's lock (see InlineCache).
+    volatile boolean shared = false;
 
     public Environment() {
         enclosing = null;
+        values = new ConcurrentHashMap<>();
+        slots = null;
+        owner = null;
     }
 
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size, Interpreter owner) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[size];
+        this.owner = owner;
     }
 
-    private final Map<String, Object> values = new HashMap<>();
-
-    void define(String name, Object value){
-        values.put(name, value);
+    void define(Symbol name, Object value){
+        values.put(name, value == null ? NIL : value);
+    }
+    void defineAt(int slot, Object value){
+        slots[slot] = value;
+    }
+    void defineDoubleAt(int slot, double value){
+        double[] doubles = this.doubles;
+        if(doubles == null) doubles = allocateDoubles();
+        doubles[slot] = value;
+        VarHandle.releaseFence();
+        slots[slot] = UNBOXED;
+    }
+    private synchronized double[] allocateDoubles(){
+        if(doubles == null) doubles = new double[slots.length];
+        return doubles;
     }
     Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+        Object value = values.get(name.symbol);
+        if(value != null){
+            return value == NIL ? null : value;
         }
-        if(enclosing !=null) return enclosing.get(name);
         throw new RuntimeError("Undefined variable '" + name.lexeme + "'.", name);
     }
-    Object getAt(int distance, String name){
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot){
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if(value == UNBOXED) return environment.unboxed(slot);
+        return value;
+    }
+    double getDoubleAt(int distance, int slot){
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if(value == UNBOXED) return environment.unboxed(slot);
+        if(value instanceof Double) return (double)value;
+        throw new UnexpectedResult(value);
+    }
+    // Once slot has been seen holding UNBOXED.
+    private double unboxed(int slot){
+        VarHandle.acquireFence();
+        return doubles[slot];
     }
     Environment ancestor(int distance){
         Environment environment = this;
@@ -34,20 +88,17 @@ public class Environment {
         return environment;
     }
     void assign(Token name, Object value){
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme,value);
-            return;
-        }
-        if(enclosing != null) {
-            enclosing.assign(name, value);
+        if(values.replace(name.symbol, value == null ? NIL : value) != null){
             return;
         }
         throw new RuntimeError("Undefined variable '" + name.lexeme + "'.", name);
     }
-    void assignAt(int distance, Token name, Object value){
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value){
+        ancestor(distance).slots[slot] = value;
+    }
+    void assignDoubleAt(int distance, int slot, double value){
+        ancestor(distance).defineDoubleAt(slot, value);
     }
 
 
 }
-
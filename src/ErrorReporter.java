@@ -0,0 +1,55 @@
+import java.util.function.Consumer;
+
+// Where compile errors and the runtime error that ends a run are reported.
+// Every compilation or run gets a reporter of its own, which formats the
+// messages, hands them to its sink and remembers whether there were any, so
+// nothing about errors is shared between programs compiling or running at once.
+final class ErrorReporter {
+    private final Consumer<String> sink;
+    // Modules are loaded on several threads, see ModuleLoader.
+    private volatile boolean hadError = false;
+    private volatile boolean hadRuntimeError = false;
+
+    ErrorReporter(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    static ErrorReporter standardError(){
+        return new ErrorReporter(System.err::println);
+    }
+
+    boolean hadError(){
+        return hadError;
+    }
+
+    boolean hadRuntimeError(){
+        return hadRuntimeError;
+    }
+
+    // The REPL carries on with the next line after a compile error.
+    void reset(){
+        hadError = false;
+    }
+
+    void error(int line, String message){
+        report(line, "", message);
+    }
+
+    void error(Token token, String message){
+        if(token.type == TokenType.EOF){
+            report(token.line, " at the end", message);
+        }else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private synchronized void report(int line, String where, String message){
+        sink.accept("[line" + line + "] Error" + where + ":" + message);
+        hadError = true;
+    }
+
+    synchronized void runtimeError(RuntimeError error){
+        sink.accept(error.getMessage() + "\n" + error.trace());
+        hadRuntimeError = true;
+    }
+}
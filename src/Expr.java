@@ -14,6 +14,9 @@ abstract class Expr {
        R visitSetExpr(Set expr);
        R visitThisExpr(This expr);
        R visitSuperExpr(Super expr);
+       R visitArrayExpr(Array expr);
+       R visitIndexExpr(Index expr);
+       R visitSetIndexExpr(SetIndex expr);
  }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -29,6 +32,8 @@ abstract class Expr {
  final Expr left;
  final Token operator;
  final Expr right;
+ // Rewritten in place by the Interpreter as operand types are observed.
+ BinaryNode node = BinaryNode.UNINITIALIZED;
  }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -64,6 +69,7 @@ abstract class Expr {
     }
  final Token operator;
  final Expr right;
+ UnaryNode node = UnaryNode.UNINITIALIZED;
  }
   static class Variable extends Expr {
     Variable(Token name) {
@@ -75,6 +81,9 @@ abstract class Expr {
      return visitor.visitVariableExpr(this);
     }
  final Token name;
+ // Filled in by the Resolver; depth -1 means the variable is global.
+ int depth = -1;
+ int slot;
  }
     static class Assign extends Expr {
         Assign(Token name, Expr value) {
@@ -88,6 +97,10 @@ abstract class Expr {
         }
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
+        // Type feedback: stays true while only numbers have been assigned here.
+        boolean numeric = true;
     }
     static class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
@@ -103,6 +116,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        LogicalNode node = LogicalNode.UNINITIALIZED;
     }
     static class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -123,6 +137,7 @@ abstract class Expr {
         Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
+            this.cache = new InlineCache("Get", name);
         }
 
         @Override
@@ -131,12 +146,14 @@ abstract class Expr {
         }
         final Expr object;
         final Token name;
+        final InlineCache cache;
     }
     static class Set extends Expr {
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
             this.value = value;
+            this.cache = new InlineCache("Set", name);
         }
 
         @Override
@@ -146,6 +163,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        final InlineCache cache;
     }
     static class This extends Expr {
         This(Token keyword) {
@@ -157,11 +175,14 @@ abstract class Expr {
             return visitor.visitThisExpr(this);
         }
         final Token keyword;
+        int depth = -1;
+        int slot;
     }
     static class Super extends Expr {
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
+            this.cache = new InlineCache("Super", method);
         }
 
         @Override
@@ -170,6 +191,58 @@ abstract class Expr {
         }
         final Token keyword;
         final Token method;
+        final InlineCache cache;
+        // Depths of the scopes holding "super" and "this", both in slot 0.
+        int depth = -1;
+        int thisDepth = -1;
+    }
+    static class Array extends Expr {
+        Array(Token bracket, List<Expr> elements) {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitArrayExpr(this);
+        }
+        // The closing bracket.
+        final Token bracket;
+        final List<Expr> elements;
+    }
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+    static class SetIndex extends Expr {
+        SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitSetIndexExpr(this);
+        }
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+        // Type feedback: stays true while only numbers have been stored here.
+        boolean numeric = true;
     }
 
    abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+// Per-site cache for Expr.Get, Expr.Set and Expr.Super. Get and Set entries are
+// keyed by the receiver's Shape (which also pins down its class), Super entries
+// by the superclass. A site caches up to POLYMORPHIC_LIMIT receivers; past that
+// it is megamorphic and every access takes the full lookup.
+// Once the run has more than one thread, fields are read and written holding
+// the instance's lock: a new field changes the shape and may grow the array,
+// and the two must look like one step to everyone else.
+final class InlineCache {
+    static final int POLYMORPHIC_LIMIT = 4;
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static final class Entry {
+        final Object key;
+        final int slot;
+        final LoxFunction method;
+        final Shape transition;
+
+        Entry(Object key, int slot, LoxFunction method, Shape transition) {
+            this.key = key;
+            this.slot = slot;
+            this.method = method;
+            this.transition = transition;
+        }
+    }
+
+    final String kind;
+    final Token name;
+    // Replaced wholesale on update so a reader never sees a half-written entry.
+    private Entry[] entries = EMPTY;
+    private boolean megamorphic = false;
+    long hits = 0;
+    long misses = 0;
+
+    InlineCache(String kind, Token name) {
+        this.kind = kind;
+        this.name = name;
+    }
+
+    Object get(Interpreter interpreter, LoxInstance instance){
+        if(interpreter.globals.shared){
+            synchronized (instance){
+                return getField(interpreter, instance);
+            }
+        }
+        return getField(interpreter, instance);
+    }
+
+    private Object getField(Interpreter interpreter, LoxInstance instance){
+        Entry entry = lookup(interpreter, instance);
+        if(entry.method != null) return entry.method.bind(instance);
+        return instance.fields[entry.slot];
+    }
+
+    // For call sites: the unbound method the property resolves to, or null if a field holds it.
+    LoxFunction method(Interpreter interpreter, LoxInstance instance){
+        return lookup(interpreter, instance).method;
+    }
+
+    private Entry lookup(Interpreter interpreter, LoxInstance instance){
+        Shape shape = instance.shape;
+        for(Entry entry : entries){
+            if(entry.key == shape){
+                hits++;
+                return entry;
+            }
+        }
+        miss(interpreter);
+        Entry entry;
+        int slot = shape.slotOf(name.symbol);
+        if(slot >= 0){
+            entry = new Entry(shape, slot, null, null);
+        } else{
+            LoxFunction method = instance.klass.findMethod(name.symbol);
+            if(method == null){
+                throw new RuntimeError("Undefined property '" + name.lexeme + "'.", name);
+            }
+            entry = new Entry(shape, -1, method, null);
+        }
+        add(entry);
+        return entry;
+    }
+
+    void set(Interpreter interpreter, LoxInstance instance, Object value){
+        if(interpreter.globals.shared){
+            synchronized (instance){
+                setField(interpreter, instance, value);
+            }
+            return;
+        }
+        setField(interpreter, instance, value);
+    }
+
+    private void setField(Interpreter interpreter, LoxInstance instance, Object value){
+        Shape shape = instance.shape;
+        for(Entry entry : entries){
+            if(entry.key == shape){
+                hits++;
+                if(entry.transition != null) instance.addField(entry.transition);
+                instance.fields[entry.slot] = value;
+                return;
+            }
+        }
+        miss(interpreter);
+        int slot = shape.slotOf(name.symbol);
+        if(slot >= 0){
+            add(new Entry(shape, slot, null, null));
+        } else{
+            Shape next = shape.withField(name.symbol);
+            slot = next.size() - 1;
+            add(new Entry(shape, slot, null, next));
+            instance.addField(next);
+        }
+        instance.fields[slot] = value;
+    }
+
+    LoxFunction superMethod(Interpreter interpreter, LoxClass superclass){
+        for(Entry entry : entries){
+            if(entry.key == superclass){
+                hits++;
+                return entry.method;
+            }
+        }
+        miss(interpreter);
+        LoxFunction method = superclass.findMethod(name.symbol);
+        if(method == null){
+            throw new RuntimeError("Undefined property '" + name.lexeme + "'.", name);
+        }
+        add(new Entry(superclass, -1, method, null));
+        return method;
+    }
+
+    private void miss(Interpreter interpreter){
+        if(misses++ == 0) interpreter.inlineCaches.add(this);
+    }
+
+    private void add(Entry entry){
+        if(megamorphic) return;
+        if(entries.length == POLYMORPHIC_LIMIT){
+            megamorphic = true;
+            entries = EMPTY;
+            return;
+        }
+        Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+        grown[entries.length] = entry;
+        entries = grown;
+    }
+
+    String state(){
+        if(megamorphic) return "megamorphic";
+        switch (entries.length){
+            case 0: return "uninitialized";
+            case 1: return "monomorphic";
+            default: return "polymorphic";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[line " + name.line + "] " + kind + " '" + name.lexeme + "': " + state() +
+                ", " + hits + " hits, " + misses + " misses";
+    }
+}
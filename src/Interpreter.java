@@ -1,47 +1,143 @@
 import jdk.jshell.execution.JdiInitiator;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    final Environment globals;
+    private Environment environment;
+    // Every property access site that has run, for reporting cache behaviour.
+    final Queue<InlineCache> inlineCaches;
+    // What spawn started; tasks run with an Interpreter of their own, see spawn.
+    private final Tasks tasks;
+    // Set for parallelMap and parallelReduce workers, which may read every
+    // variable but only assign those in scopes they created, see Parallel.
+    private final boolean isolated;
+    // Hot functions and loops move on to compiled code, see Jit.
+    boolean jitEnabled = true;
+    // The tree-walker takes a dozen or so Java frames per Lox call, so on a
+    // default thread stack scripts overflow a few hundred calls deep. They run
+    // on a thread with this much stack instead; only what they use is committed.
+    static final long STACK_SIZE = 256L << 20;
+    private final Set<Module> initializedModules = new HashSet<>();
+    // Value of the return statement that completed with Completion.RETURN.
+    private Object returnValue;
+    // The call a return statement completing with Completion.TAIL_CALL left behind.
+    LoxFunction tailFunction;
+    LoxInstance tailReceiver;
+    Object[] tailArguments;
+    // What a call in tail position evaluates to when it was left as a tail call.
+    private static final Object TAIL_CALL = new Object();
+    // Line of the call the running native was called from, see spawn.
+    private int nativeCallLine;
+    // Where print statements go, and where the error that ends a run is reported.
+    private final Output output;
+    private final ErrorReporter errors;
+    Interpreter(ErrorReporter errors){
+        this(ChannelOutput.standardOutput(), errors);
+    }
+
+    Interpreter(Output output, ErrorReporter errors){
+        this.globals = new Environment();
+        this.environment = globals;
+        this.inlineCaches = new ConcurrentLinkedQueue<>();
+        this.tasks = new Tasks();
+        this.isolated = false;
+        this.output = output;
+        this.errors = errors;
+        for(Map.Entry<String, LoxCallable> entry : Natives.ALL.entrySet()){
+            globals.define(Symbol.of(entry.getKey()), entry.getValue());
+        }
+    }
 
+    // A spawned task's or parallel worker's execution state: the run's globals,
+    // output and errors with an environment, call state and return value of its own.
+    private Interpreter(Interpreter parent, boolean isolated){
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.inlineCaches = parent.inlineCaches;
+        this.tasks = parent.tasks;
+        this.isolated = isolated;
+        this.output = parent.output;
+        this.errors = parent.errors;
+        this.jitEnabled = parent.jitEnabled;
+        this.nativeCallLine = parent.nativeCallLine;
+    }
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    Interpreter(){
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
+    // Runs the statements on a thread with a STACK_SIZE stack of its own and
+    // returns once the script and its tasks are done.
+    public void interpret(List<Stmt> statements){
+        Throwable[] thrown = new Throwable[1];
+        Thread script = new Thread(null, () -> {
+            try {
+                run(statements);
+            } catch (RuntimeException | Error e){
+                thrown[0] = e;
             }
-
-            @Override
-            public int arity() {
-                return 0;
+        }, "lox-script", STACK_SIZE);
+        script.start();
+        boolean interrupted = false;
+        while(true){
+            try {
+                script.join();
+                break;
+            } catch (InterruptedException e){
+                interrupted = true;
             }
-        });
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+        if(thrown[0] instanceof RuntimeException e) throw e;
+        if(thrown[0] instanceof Error e) throw e;
     }
 
-    public void interpret(List<Stmt> statements){
+    private void run(List<Stmt> statements){
         try {
             for (Stmt statement : statements){
                 execute(statement);
             }
         } catch (RuntimeError error){
-            Main.runtimeError(error);
+            output.flush();
+            errors.runtimeError(error);
+        } finally {
+            tasks.await();
+            output.flush();
         }
     }
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+
+    // Calls function, which takes no arguments, on a virtual thread. A runtime
+    // error ends only that task and is reported like one ending the script,
+    // with the spawn call's line as the script's.
+    void spawn(LoxCallable function){
+        // Tasks a worker spawns are bound by the same rule as the worker.
+        Interpreter task = new Interpreter(this, isolated);
+        int line = nativeCallLine;
+        globals.shared = true;
+        tasks.start(() -> {
+            try {
+                function.call0(task);
+            } catch (RuntimeError error){
+                output.flush();
+                errors.runtimeError(error.calledFrom(line));
+            }
+        });
     }
 
-    void resolve (Expr expr, int depth){
-        locals.put(expr, depth);
+    // Execution state for one parallel worker, see Parallel.
+    Interpreter worker(){
+        globals.shared = true;
+        return new Interpreter(this, true);
+    }
+    private Completion execute(Stmt stmt){
+        return stmt.accept(this);
     }
 
-    private String stringify(Object value) {
+    static String stringify(Object value) {
         if(value == null) return "nil";
 
         if(value instanceof Double){
@@ -56,35 +152,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type){
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-            case GREATER: checkNumberOperands(expr.operator, left,right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL: checkNumberOperands(expr.operator, left,right);
-                return (double)left >= (double)right;
-            case LESS: checkNumberOperands(expr.operator, left,right);
-                return (double)left < (double)right;
-            case LESS_EQUAL: checkNumberOperands(expr.operator, left,right);
-                return (double)left <= (double)right;
-            case MINUS: checkNumberOperands(expr.operator, left,right);
-                return (double)left - (double)right;
-            case PLUS:
-                if(left instanceof Double && right instanceof Double){
-                    return (double)left + (double)right;
-                } else if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-                throw new RuntimeError("Operands must be two numbers or two strings.", expr.operator);
-            case SLASH: checkNumberOperands(expr.operator, left,right);
-                return (double)left / (double)right;
-            case STAR: checkNumberOperands(expr.operator, left,right);
-                return (double)left * (double)right;
-        }
-        return null;
+        return expr.node.execute(this, expr);
     }
 
 
@@ -101,118 +169,237 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-        switch (expr.operator.type){
-            case BANG: return !isTruthy(right);
-            case MINUS: checkNumberOperand(expr.operator, right);
-                return -(double)right;
-        }
-        return null;
+        return expr.node.execute(this, expr);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if(object == null) return false;
         if(object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private Object evaluate(Expr expr){
+    Object evaluate(Expr expr){
         return expr.accept(this);
     }
-    private boolean isEqual(Object a, Object b ){
+
+    // Evaluates an expression expected to produce a number without boxing it.
+    // Throws UnexpectedResult carrying the value when it isn't one.
+    double evaluateDouble(Expr expr){
+        if(expr instanceof Expr.Variable){
+            Expr.Variable variable = (Expr.Variable) expr;
+            if(variable.depth >= 0) return environment.getDoubleAt(variable.depth, variable.slot);
+        } else if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            return binary.node.executeDouble(this, binary);
+        } else if(expr instanceof Expr.Literal){
+            return BinaryNode.expectDouble(((Expr.Literal) expr).value);
+        } else if(expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.node.executeDouble(this, unary);
+        } else if(expr instanceof Expr.Grouping){
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        } else if(expr instanceof Expr.Index){
+            Expr.Index index = (Expr.Index) expr;
+            Object array = evaluate(index.object);
+            double value = evaluateIndex(array, index.index, index.bracket);
+            try {
+                return ((LoxArray) array).getDouble(value);
+            } catch (RuntimeError error){
+                throw error.calledFrom(index.bracket.line);
+            }
+        }
+        return BinaryNode.expectDouble(evaluate(expr));
+    }
+    static boolean isEqual(Object a, Object b ){
         if(a == null & b == null) return true;
         if(a == null ^ b == null) return false;
+        // Concatenations are compared by their chars.
+        if(a instanceof LoxString) a = a.toString();
+        if(b instanceof LoxString) b = b.toString();
 
         return a.equals(b);
     }
-    private void checkNumberOperand(Token operator, Object operand) {
-        if(operand instanceof Double) return;
-        throw new RuntimeError("Operand must be a number.", operator);
+
+    @Override
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        executeExpression(stmt.expression);
+        return Completion.NORMAL;
     }
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError("Operands must be numbers.", operator);
+
+    // Evaluates an expression for its effect only.
+    private void executeExpression(Expr expression) {
+        if(expression instanceof Expr.Assign){
+            executeAssign((Expr.Assign) expression);
+            return;
+        }
+        if(expression instanceof Expr.SetIndex){
+            executeSetIndex((Expr.SetIndex) expression);
+            return;
+        }
+        evaluate(expression);
     }
 
-    @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
-        return null;
+    // An assignment whose result is discarded: numbers can be stored unboxed.
+    private void executeAssign(Expr.Assign expr) {
+        if(!expr.numeric || expr.depth < 0){
+            visitAssignExpr(expr);
+            return;
+        }
+        if(isolated) checkAssignable(expr);
+        try {
+            environment.assignDoubleAt(expr.depth, expr.slot, evaluateDouble(expr.value));
+        } catch (UnexpectedResult result){
+            expr.numeric = false;
+            environment.assignAt(expr.depth, expr.slot, result.value);
+        }
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        output.println(value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if(stmt.numeric && stmt.slot >= 0 && stmt.initializer != null){
+            try {
+                environment.defineDoubleAt(stmt.slot, evaluateDouble(stmt.initializer));
+                return Completion.NORMAL;
+            } catch (UnexpectedResult result){
+                stmt.numeric = false;
+                environment.defineAt(stmt.slot, result.value);
+                return Completion.NORMAL;
+            }
+        }
         Object value = null;
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        if(stmt.slot < 0){
+            globals.define(stmt.name.symbol, value);
+        } else{
+            environment.defineAt(stmt.slot, value);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.slotCount == 0) return executeStatements(stmt.statements);
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slotCount, this));
+    }
+
+    private Completion executeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements){
+            Completion completion = execute(statement);
+            if(completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
     }
 
-    public Void executeBlock(List<Stmt> statements, Environment environment) {
+    public Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-
-            for (Stmt statement : statements){
-                execute(statement);
-            }
+            return executeStatements(statements);
         } finally {
             this.environment = previous;
         }
-        return null;
+    }
+
+    // Hands over the value of the return statement that just completed.
+    Object takeReturnValue(){
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         }
         else if(stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if(completion != Completion.NORMAL) return completion;
+            // Back edge: once the loop is hot the remaining iterations run compiled.
+            if(jitEnabled && runCompiled(stmt, stmt.profile)) return Completion.NORMAL;
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitForStmt(Stmt.For stmt) {
+        Environment previous = environment;
+        if(stmt.slotCount > 0) environment = new Environment(environment, stmt.slotCount, this);
+        try {
+            if(stmt.initializer != null) execute(stmt.initializer);
+            while(stmt.condition == null || isTruthy(evaluate(stmt.condition))){
+                Completion completion = execute(stmt.body);
+                if(completion != Completion.NORMAL) return completion;
+                if(stmt.increment != null) executeExpression(stmt.increment);
+                if(jitEnabled && runCompiled(stmt, stmt.profile)) return Completion.NORMAL;
+            }
+            return Completion.NORMAL;
+        } finally {
+            environment = previous;
+        }
+    }
+
+    // Runs the rest of a hot while or for loop compiled, from its condition on.
+    private boolean runCompiled(Stmt loop, JitProfile profile){
+        CompiledCode code = profile.code;
+        if(code == null){
+            if(!profile.tick()) return false;
+            code = profile.install(Jit.compileLoop(loop, globals));
+            if(code == null) return false;
+        }
+        // A worker leaves loops writing to captured scopes to the tree-walker, which rejects the write.
+        if(isolated && !ownsScopes(code.reach)) return false;
+        try {
+            code.run(environment);
+            return true;
+        } catch (Deoptimize deoptimize){
+            // Nothing has been written back, the interpreter carries on from here.
+            profile.deoptimize(code);
+            return false;
         }
-        return null;
+    }
+
+    private boolean ownsScopes(int reach){
+        return reach < 0 || reach != Integer.MAX_VALUE && environment.ancestor(reach).owner == this;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false );
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction function = new LoxFunction(stmt, environment, false, false);
+        if(stmt.slot < 0){
+            globals.define(stmt.name.symbol, function);
+        } else{
+            environment.defineAt(stmt.slot, function);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if(depth >= 0){
+            return environment.getAt(depth, slot);
         } else{
             return globals.get(name);
         }
@@ -221,54 +408,158 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
+        if(isolated) checkAssignable(expr);
 
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            environment.assignAt(distance, expr.name, value);
+        if(expr.depth >= 0){
+            environment.assignAt(expr.depth, expr.slot, value);
         } else{
             globals.assign(expr.name, value);
         }
         return value;
     }
 
+    // A worker may only assign variables in scopes it created itself.
+    private void checkAssignable(Expr.Assign expr){
+        if(expr.depth < 0 || environment.ancestor(expr.depth).owner != this){
+            throw new RuntimeError("Can't assign to a captured variable in a parallel task.", expr.name);
+        }
+    }
+
+    // Nor may it modify arrays and maps it didn't create; the caller sets the line.
+    void checkWritable(Interpreter owner){
+        if(isolated && owner != this){
+            throw new RuntimeError("Can't modify a captured array or map in a parallel task.");
+        }
+    }
+
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
-        Object left = evaluate(expr.left);
-        if(expr.operator.type == TokenType.OR){
-            if(isTruthy(left)) return left;
-        } else{
-            if(!isTruthy(left)) return left;
-        }
-        return evaluate(expr.right);
+        return expr.node.execute(this, expr);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        return call(expr, false);
+    }
+
+    // With tail set, a call to a Lox function isn't made but left for the
+    // caller's LoxFunction.invoke, which returns TAIL_CALL; see Completion.
+    private Object call(Expr.Call expr, boolean tail) {
+        if(expr.callee instanceof Expr.Get){
+            return invokeProperty(expr, (Expr.Get) expr.callee, tail);
+        }
+        if(expr.callee instanceof Expr.Super){
+            return invokeSuper(expr, (Expr.Super) expr.callee, tail);
+        }
         Object callee = evaluate(expr.callee);
+        return call(expr, callee, boundReceiver(callee), tail);
+    }
+
+    private static LoxInstance boundReceiver(Object callee){
+        return callee instanceof LoxFunction function ? function.receiver : null;
+    }
+
+    // obj.method(args) without materializing a bound method: the receiver goes
+    // straight into the callee's frame. Fields holding callables take the normal path.
+    private Object invokeProperty(Expr.Call expr, Expr.Get get, boolean tail) {
+        Object object = evaluate(get.object);
+        if(!(object instanceof LoxInstance)){
+            throw new RuntimeError("Only instances have properties", get.name);
+        }
+        LoxInstance instance = (LoxInstance) object;
+        LoxFunction method = get.cache.method(this, instance);
+        if(method == null){
+            Object callee = get.cache.get(this, instance);
+            return call(expr, callee, boundReceiver(callee), tail);
+        }
+        return call(expr, method, instance, tail);
+    }
+
+    private Object invokeSuper(Expr.Call expr, Expr.Super callee, boolean tail) {
+        LoxClass superclass = (LoxClass) environment.getAt(callee.depth, 0);
+        LoxInstance object = (LoxInstance) environment.getAt(callee.thisDepth, 0);
+        LoxFunction method = callee.cache.superMethod(this, superclass);
+        return call(expr, method, object, tail);
+    }
+
+    // Evaluates the arguments, then calls callee with receiver as "this" if it
+    // is a LoxFunction. Up to four arguments are held in locals and passed to
+    // the entry point for their count, more go in an array.
+    private Object call(Expr.Call expr, Object callee, LoxInstance receiver, boolean tail) {
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        if(count > 4 || tail && callee instanceof LoxFunction){
+            Object[] values = evaluateArguments(expr);
+            LoxCallable function = callable(expr, callee);
+            if(tail && function instanceof LoxFunction loxFunction){
+                tailFunction = loxFunction;
+                tailReceiver = receiver;
+                tailArguments = values;
+                return TAIL_CALL;
+            }
+            try {
+                if(function instanceof LoxFunction loxFunction) return loxFunction.invoke(this, receiver, values);
+                nativeCallLine = expr.paren.line;
+                return function.call(this, values);
+            } catch (RuntimeError error){
+                throw error.calledFrom(expr.paren.line);
+            }
+        }
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object d = count > 3 ? evaluate(arguments.get(3)) : null;
+        LoxCallable function = callable(expr, callee);
+        try {
+            if(function instanceof LoxFunction loxFunction){
+                switch (count){
+                    case 0: return loxFunction.invoke0(this, receiver);
+                    case 1: return loxFunction.invoke1(this, receiver, a);
+                    case 2: return loxFunction.invoke2(this, receiver, a, b);
+                    case 3: return loxFunction.invoke3(this, receiver, a, b, c);
+                    default: return loxFunction.invoke4(this, receiver, a, b, c, d);
+                }
+            }
+            nativeCallLine = expr.paren.line;
+            switch (count){
+                case 0: return function.call0(this);
+                case 1: return function.call1(this, a);
+                case 2: return function.call2(this, a, b);
+                case 3: return function.call3(this, a, b, c);
+                default: return function.call4(this, a, b, c, d);
+            }
+        } catch (RuntimeError error){
+            throw error.calledFrom(expr.paren.line);
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments){
-            arguments.add(evaluate(argument));
+    private Object[] evaluateArguments(Expr.Call expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++){
+            arguments[i] = evaluate(expr.arguments.get(i));
         }
+        return arguments;
+    }
 
+    // The callee, once it is known to take the call's arguments.
+    private LoxCallable callable(Expr.Call expr, Object callee) {
         if(!(callee instanceof LoxCallable)) {
             throw new RuntimeError("Can only call functions and classes.", expr.paren);
         }
         LoxCallable function = (LoxCallable)callee;
-        if(arguments.size() != function.arity()){
+        if(expr.arguments.size() != function.arity()){
             throw new RuntimeError("Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".", expr.paren);
+                    expr.arguments.size() + ".", expr.paren);
         }
-
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if(object instanceof LoxInstance){
-            return ((LoxInstance) object).get(expr.name);
+            return expr.cache.get(this, (LoxInstance) object);
         }
         throw new RuntimeError("Only instances have properties", expr.name);
     }
@@ -282,39 +573,123 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name,value);
+        expr.cache.set(this, (LoxInstance)object, value);
+        return value;
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        LoxArray array = new LoxArray(expr.elements.size(), this);
+        for(Expr element : expr.elements){
+            array.push(evaluate(element));
+        }
+        return array;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object array = evaluate(expr.object);
+        double index = evaluateIndex(array, expr.index, expr.bracket);
+        try {
+            return ((LoxArray) array).get(index);
+        } catch (RuntimeError error){
+            throw error.calledFrom(expr.bracket.line);
+        }
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        Object array = evaluate(expr.object);
+        double index = evaluateIndex(array, expr.index, expr.bracket);
+        Object value = evaluate(expr.value);
+        try {
+            if(isolated) checkWritable(((LoxArray) array).owner);
+            ((LoxArray) array).set(index, value);
+        } catch (RuntimeError error){
+            throw error.calledFrom(expr.bracket.line);
+        }
+        return value;
+    }
+
+    // An element assignment whose result is discarded: numbers can be stored unboxed.
+    private void executeSetIndex(Expr.SetIndex expr) {
+        if(!expr.numeric){
+            visitSetIndexExpr(expr);
+            return;
+        }
+        Object array = evaluate(expr.object);
+        double index = evaluateIndex(array, expr.index, expr.bracket);
+        boolean numeric = true;
+        double number = 0;
+        Object value = null;
+        try {
+            number = evaluateDouble(expr.value);
+        } catch (UnexpectedResult result){
+            // From now on this store goes through evaluate, boxed.
+            expr.numeric = false;
+            numeric = false;
+            value = result.value;
+        }
+        try {
+            if(isolated) checkWritable(((LoxArray) array).owner);
+            if(numeric){
+                ((LoxArray) array).setDouble(index, number);
+            } else{
+                ((LoxArray) array).set(index, value);
+            }
+        } catch (RuntimeError error){
+            throw error.calledFrom(expr.bracket.line);
+        }
+    }
+
+    // Evaluates the index, unboxed, then checks both operands of the index operator.
+    private double evaluateIndex(Object array, Expr index, Token bracket) {
+        boolean numeric = true;
+        double value = 0;
+        try {
+            value = evaluateDouble(index);
+        } catch (UnexpectedResult result){
+            numeric = false;
+        }
+        if(!(array instanceof LoxArray)){
+            throw new RuntimeError("Only arrays can be indexed.", bracket);
+        }
+        if(!numeric){
+            throw new RuntimeError("Array index must be a number.", bracket);
+        }
         return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance,"super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance-1, "this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
-        if(method == null){
-            throw new RuntimeError("Undefined property '" + expr.method.lexeme + "'.", expr.method);
-        }
-        return method.bind(object);
+        int distance = expr.depth;
+        LoxClass superclass = (LoxClass) environment.getAt(distance, 0);
+        LoxInstance object = (LoxInstance) environment.getAt(expr.thisDepth, 0);
+        return expr.cache.superMethod(this, superclass).bind(object);
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if(stmt.value != null){
+        if(stmt.value instanceof Expr.Call){
+            // Tail position: the call runs after this function's frame is gone.
+            value = call((Expr.Call) stmt.value, true);
+            if(value == TAIL_CALL) return Completion.TAIL_CALL;
+        } else if(stmt.value != null){
             value = evaluate(stmt.value);
         }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if(stmt.superclass != null){
             superclass = evaluate(stmt.superclass);
@@ -322,25 +697,41 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError("Superclass must be a class", stmt.superclass.name);
             }
         }
-        environment.define(stmt.name.lexeme, null);
+        if(stmt.slot < 0){
+            globals.define(stmt.name.symbol, null);
+        } else{
+            environment.defineAt(stmt.slot, null);
+        }
 
         if(stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1, this);
+            environment.defineAt(0, superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for(Stmt.Function method : stmt.methods){
-            LoxFunction function = new LoxFunction(method, environment,method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, environment,method.name.symbol == Symbol.INIT, true);
+            methods.put(method.name.symbol, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, methods, (LoxClass)superclass);
         if(superclass !=null){
             environment = environment.enclosing;
         }
-        environment.assign(stmt.name, klass);
-        return null;
+        if(stmt.slot < 0){
+            globals.assign(stmt.name, klass);
+        } else{
+            environment.defineAt(stmt.slot, klass);
+        }
+        return Completion.NORMAL;
     }
 
+    @Override
+    public Completion visitImportStmt(Stmt.Import stmt) {
+        // A module runs once, on its first import, in the global scope.
+        if(initializedModules.add(stmt.module)){
+            executeBlock(stmt.module.statements, globals);
+        }
+        return Completion.NORMAL;
+    }
 }
@@ -0,0 +1,677 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Second tier of the tree-walker: compiles hot function bodies and while loops
+// into a hidden class, so HotSpot optimizes the Lox code itself instead of the
+// generic visitors. Only a numeric subset compiles: number variables, boolean
+// conditions, arithmetic, comparisons, if, while, return and calls to global
+// functions that compile as well. Compiled code has no side effects until it
+// finishes; a loop keeps the variables it assigns in JVM locals and writes them
+// back when it exits. A failed assumption (see Deoptimize) therefore lets the
+// interpreter simply run the call or loop again as if compiled code never ran.
+// Variables from outside the region are read once, on entry, for as long as
+// the program runs on one thread; once it has spawned a task, which may assign
+// them at any time, every loop head reads them again, see reloadPoint.
+final class Jit implements Expr.Visitor<Jit.Type>, Stmt.Visitor<Void> {
+    enum Type { NUMBER, BOOLEAN }
+
+    private static class Unsupported extends RuntimeException {}
+
+    // A variable from outside the compiled region, cached in a JVM local.
+    private static class External {
+        final int local;
+        final int distance;
+        final int slot;
+        final int global;
+        boolean assigned = false;
+
+        External(int local, int distance, int slot, int global) {
+            this.local = local;
+            this.distance = distance;
+            this.slot = slot;
+            this.global = global;
+        }
+    }
+
+    private static final String BASE = "CompiledCode";
+    private static final String ENVIRONMENT = "LEnvironment;";
+    private static final MethodType CONSTRUCTOR =
+            MethodType.methodType(void.class, Object[].class, Environment.class, Stmt.Function.class, int.class);
+    // Locals are addressed with one-byte dload/dstore operands.
+    private static final int MAX_LOCALS = 255;
+    // Branch offsets are signed 16 bit.
+    private static final int MAX_CODE = 32767;
+    // Functions of up to this many parameters get an entry point without an
+    // argument array, and calls with this many arguments use them.
+    private static final int MAX_FIXED_ARITY = 4;
+
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, DCONST_0 = 0x0e,
+            DCONST_1 = 0x0f, BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14, DLOAD = 0x18,
+            DALOAD = 0x31, DSTORE = 0x39, DASTORE = 0x52, POP = 0x57, POP2 = 0x58,
+            DUP = 0x59, DUP2 = 0x5c, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77,
+            IXOR = 0x82, LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b,
+            IFGE = 0x9c, ILOAD = 0x15, IFGT = 0x9d, IFLE = 0x9e, GOTO = 0xa7, DRETURN = 0xaf, RETURN = 0xb1,
+            GETSTATIC = 0xb2, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+            NEWARRAY = 0xbc, ATHROW = 0xbf, T_DOUBLE = 7;
+
+    private final ClassFile classFile;
+    private final Environment globals;
+    // The function being compiled, null when compiling a loop.
+    private final Stmt.Function function;
+    private final ClassFile.Code code = new ClassFile.Code();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<String, Integer> globalConstants = new HashMap<>();
+    private final Map<String, External> externals = new LinkedHashMap<>();
+    // Slot to JVM local, one map per scope opened inside the region.
+    private final List<Map<Integer, Integer>> scopes = new ArrayList<>();
+    private int nextLocal;
+    private boolean callsFunctions = false;
+    private boolean assignsGlobals = false;
+    // Constant of the function's own name if its body calls itself, else -1.
+    private int selfReference = -1;
+    // Start of the function body, where tail calls to itself jump back to.
+    private final ClassFile.Label bodyStart = new ClassFile.Label();
+    // Per loop head, the block reading the externals again and where it returns to.
+    private final List<ClassFile.Label[]> reloads = new ArrayList<>();
+
+    private Jit(String name, Environment globals, Stmt.Function function) {
+        this.classFile = new ClassFile("Jit$" + name, BASE);
+        this.globals = globals;
+        this.function = function;
+    }
+
+    // Both entry points return null if the region is outside the compiled subset.
+    static CompiledCode compile(Stmt.Function function, Environment globals){
+        Jit jit = new Jit(function.name.lexeme, globals, function);
+        try {
+            return jit.compileFunction();
+        } catch (Unsupported unsupported){
+            return null;
+        }
+    }
+
+    // A while or for loop, entered at its condition in the environment it runs in.
+    static CompiledCode compileLoop(Stmt loop, Environment globals){
+        Jit jit = new Jit("loop", globals, null);
+        try {
+            return jit.compileLoop(loop);
+        } catch (Unsupported unsupported){
+            return null;
+        }
+    }
+
+    private CompiledCode compileFunction(){
+        int arity = function.params.size();
+        // this, the closure, then the parameters.
+        nextLocal = 2;
+        Map<Integer, Integer> parameters = new HashMap<>();
+        for(int i = 0; i < arity; i++){
+            parameters.put(i, nextLocal);
+            nextLocal += 2;
+        }
+        scopes.add(parameters);
+        code.mark(bodyStart);
+        reloadPoint();
+        for(Stmt statement : function.body){
+            compile(statement);
+        }
+        // Falling off the end returns nil, which compiled code can't represent.
+        deoptimize();
+        reloadBlocks();
+
+        String body = "(" + ENVIRONMENT + "D".repeat(arity) + ")D";
+        classFile.method("body", body, withPrologue());
+        classFile.method("call", "(" + ENVIRONMENT + "[D)D", entry(arity, body, true));
+        if(arity <= MAX_FIXED_ARITY){
+            classFile.method("call" + arity, body, entry(arity, body, false));
+        }
+        return define(-1);
+    }
+
+    // An entry point calling body, with the arguments in an array or one per parameter.
+    private ClassFile.Code entry(int arity, String body, boolean array){
+        ClassFile.Code call = new ClassFile.Code();
+        if(selfReference >= 0){
+            // Compiled code can't reassign globals, so one check holds until tasks
+            // are spawned; from then on the reload blocks check again.
+            call.op(0x2a, 1); // aload_0
+            pushInt(call, selfReference);
+            call.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "checkSelf", "(I)V"), -2);
+        }
+        call.op(0x2a, 1); // aload_0
+        call.op(0x2b, 1); // aload_1
+        for(int i = 0; i < arity; i++){
+            if(array){
+                call.op(0x2c, 1); // aload_2
+                pushInt(call, i);
+                call.op(DALOAD, 0);
+            } else{
+                call.op1(DLOAD, 2 + 2 * i, 2);
+            }
+        }
+        call.op2(INVOKEVIRTUAL, classFile.methodRef(classFile.thisClass(), "body", body), -2 - 2 * arity + 2);
+        call.op(DRETURN, -2);
+        call.maxLocals = array ? 3 : 2 + 2 * arity;
+        return call;
+    }
+
+    private CompiledCode compileLoop(Stmt loop){
+        // this, then the environment the loop runs in.
+        nextLocal = 2;
+        if(loop instanceof Stmt.For stmt){
+            // The initializer has run, its variable is already in the environment.
+            loop(stmt.condition, stmt.body, stmt.increment);
+        } else{
+            compile(loop);
+        }
+        // A global written here could be read by a called function before the
+        // write-back, so loops that call out may only assign locals.
+        if(callsFunctions && assignsGlobals) throw new Unsupported();
+        for(External external : externals.values()){
+            if(!external.assigned) continue;
+            code.op(0x2a, 1); // aload_0
+            if(external.global < 0){
+                code.op(0x2b, 1); // aload_1
+                pushInt(code, external.distance);
+                pushInt(code, external.slot);
+                code.op1(DLOAD, external.local, 2);
+                code.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "storeLocal", "(" + ENVIRONMENT + "IID)V"), -6);
+            } else{
+                pushInt(code, external.global);
+                code.op1(DLOAD, external.local, 2);
+                code.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "storeGlobal", "(ID)V"), -4);
+            }
+        }
+        code.op(RETURN, 0);
+        reloadBlocks();
+        classFile.method("run", "(" + ENVIRONMENT + ")V", withPrologue());
+        int reach = -1;
+        for(External external : externals.values()){
+            if(!external.assigned) continue;
+            reach = external.global >= 0 ? Integer.MAX_VALUE : Math.max(reach, external.distance);
+        }
+        return define(reach);
+    }
+
+    // Loads every external into its JVM local ahead of the compiled body. The
+    // body is only complete once all externals are known, and since branch
+    // offsets are relative it can be appended behind the prologue unchanged.
+    private ClassFile.Code withPrologue(){
+        if(nextLocal > MAX_LOCALS || code.length() > MAX_CODE) throw new Unsupported();
+        ClassFile.Code prologue = new ClassFile.Code();
+        for(External external : externals.values()){
+            load(prologue, external);
+        }
+        prologue.append(code);
+        prologue.maxLocals = nextLocal;
+        return prologue;
+    }
+
+    private void load(ClassFile.Code target, External external){
+        target.op(0x2a, 1); // aload_0
+        if(external.global < 0){
+            target.op(0x2b, 1); // aload_1
+            pushInt(target, external.distance);
+            pushInt(target, external.slot);
+            target.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "loadLocal", "(" + ENVIRONMENT + "II)D"), -2);
+        } else{
+            pushInt(target, external.global);
+            target.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "loadGlobal", "(I)D"), 0);
+        }
+        target.op1(DSTORE, external.local, -2);
+    }
+
+    // At a loop head: once the run has spawned tasks, branches off to a block
+    // that reads the externals again, so the loop sees what other tasks assign.
+    // The blocks are emitted behind the body, when every external is known.
+    private void reloadPoint(){
+        ClassFile.Label reload = new ClassFile.Label();
+        ClassFile.Label resume = new ClassFile.Label();
+        code.op(0x2a, 1); // aload_0
+        code.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "shared", "()Z"), 0);
+        code.jump(IFNE, reload, -1);
+        code.mark(resume);
+        reloads.add(new ClassFile.Label[]{reload, resume});
+    }
+
+    // Externals the region assigns itself stay in their locals until the
+    // write-back. A function that calls itself also checks again that its
+    // name still refers to it.
+    private void reloadBlocks(){
+        for(ClassFile.Label[] labels : reloads){
+            code.setStack(0);
+            code.mark(labels[0]);
+            if(selfReference >= 0){
+                code.op(0x2a, 1); // aload_0
+                pushInt(code, selfReference);
+                code.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "checkSelf", "(I)V"), -2);
+            }
+            for(External external : externals.values()){
+                if(!external.assigned) load(code, external);
+            }
+            code.jump(GOTO, labels[1], 0);
+        }
+    }
+
+    // See CompiledCode.reach.
+    private CompiledCode define(int reach){
+        String descriptor = "([Ljava/lang/Object;" + ENVIRONMENT + "LStmt$Function;I)V";
+        ClassFile.Code constructor = new ClassFile.Code();
+        constructor.op(0x2a, 1); // aload_0
+        constructor.op(0x2b, 1); // aload_1
+        constructor.op(0x2c, 1); // aload_2
+        constructor.op(0x2d, 1); // aload_3
+        constructor.op1(ILOAD, 4, 1);
+        constructor.op2(INVOKESPECIAL, classFile.methodRef(BASE, "<init>", descriptor), -5);
+        constructor.op(RETURN, 0);
+        constructor.maxLocals = 5;
+        classFile.method("<init>", descriptor, constructor);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile.toBytes(), true);
+            return (CompiledCode)lookup.findConstructor(lookup.lookupClass(), CONSTRUCTOR)
+                    .invoke(constants.toArray(), globals, function, reach);
+        } catch (Throwable e){
+            throw new IllegalStateException("Jit generated an invalid class.", e);
+        }
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private Type compile(Expr expr){
+        return expr.accept(this);
+    }
+
+    private void compileNumber(Expr expr){
+        if(compile(expr) != Type.NUMBER) throw new Unsupported();
+    }
+
+    private void compileCondition(Expr expr){
+        if(compile(expr) != Type.BOOLEAN) throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        code.op(compile(stmt.expression) == Type.NUMBER ? POP2 : POP, 0);
+        code.setStack(0);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer == null || stmt.slot < 0) throw new Unsupported();
+        compileNumber(stmt.initializer);
+        int local = nextLocal;
+        nextLocal += 2;
+        scopes.get(scopes.size() - 1).put(stmt.slot, local);
+        code.op1(DSTORE, local, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // Blocks without locals have no Environment, so no scope here either.
+        if(stmt.slotCount > 0) scopes.add(new HashMap<>());
+        for(Stmt statement : stmt.statements){
+            compile(statement);
+        }
+        if(stmt.slotCount > 0) scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        compileCondition(stmt.condition);
+        code.jump(IFEQ, elseBranch, -1);
+        compile(stmt.thenBranch);
+        code.jump(GOTO, end, 0);
+        code.mark(elseBranch);
+        if(stmt.elseBranch != null) compile(stmt.elseBranch);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if(stmt.slotCount > 0) scopes.add(new HashMap<>());
+        if(stmt.initializer != null) compile(stmt.initializer);
+        loop(stmt.condition, stmt.body, stmt.increment);
+        if(stmt.slotCount > 0) scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    // A missing condition loops until the body returns.
+    private void loop(Expr condition, Stmt body, Expr increment){
+        ClassFile.Label start = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        code.mark(start);
+        reloadPoint();
+        if(condition != null){
+            compileCondition(condition);
+            code.jump(IFEQ, end, -1);
+        }
+        compile(body);
+        if(increment != null){
+            code.op(compile(increment) == Type.NUMBER ? POP2 : POP, 0);
+            code.setStack(0);
+        }
+        code.jump(GOTO, start, 0);
+        code.mark(end);
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(function == null || stmt.value == null) throw new Unsupported();
+        if(stmt.value instanceof Expr.Call call && isSelfCall(call)){
+            // A tail call to ourselves rebinds the parameters and starts over.
+            // Function bodies never assign externals, so the prologue's loads still hold.
+            selfReference = globalConstant(((Expr.Variable) call.callee).name);
+            for(Expr argument : call.arguments){
+                compileNumber(argument);
+            }
+            Map<Integer, Integer> parameters = scopes.get(0);
+            for(int i = call.arguments.size() - 1; i >= 0; i--){
+                code.op1(DSTORE, parameters.get(i), -2);
+            }
+            code.jump(GOTO, bodyStart, 0);
+            return null;
+        }
+        compileNumber(stmt.value);
+        code.op(DRETURN, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type){
+            case PLUS: return arithmetic(expr, DADD);
+            case MINUS: return arithmetic(expr, DSUB);
+            case STAR: return arithmetic(expr, DMUL);
+            case SLASH: return arithmetic(expr, DDIV);
+            // dcmpg pushes 1 and dcmpl -1 for NaN, so every comparison with NaN is false.
+            case GREATER: return comparison(expr, DCMPL, IFLE);
+            case GREATER_EQUAL: return comparison(expr, DCMPL, IFLT);
+            case LESS: return comparison(expr, DCMPG, IFGE);
+            case LESS_EQUAL: return comparison(expr, DCMPG, IFGT);
+            case EQUAL_EQUAL: return equality(expr, false);
+            case BANG_EQUAL: return equality(expr, true);
+        }
+        throw new Unsupported();
+    }
+
+    private Type arithmetic(Expr.Binary expr, int opcode){
+        compileNumber(expr.left);
+        compileNumber(expr.right);
+        code.op(opcode, -2);
+        return Type.NUMBER;
+    }
+
+    private Type comparison(Expr.Binary expr, int compare, int jumpIfFalse){
+        compileNumber(expr.left);
+        compileNumber(expr.right);
+        code.op(compare, -3);
+        return materialize(jumpIfFalse);
+    }
+
+    private Type equality(Expr.Binary expr, boolean negate){
+        int bits = classFile.methodRef("java/lang/Double", "doubleToLongBits", "(D)J");
+        Type left = compile(expr.left);
+        if(left == Type.NUMBER) code.op2(INVOKESTATIC, bits, 0);
+        Type right = compile(expr.right);
+        if(left != right) throw new Unsupported();
+        if(left == Type.BOOLEAN){
+            code.op(IXOR, -1);
+            if(!negate){
+                code.op(ICONST_1, 1);
+                code.op(IXOR, -1);
+            }
+            return Type.BOOLEAN;
+        }
+        // Same semantics as Double.equals, which isEqual relies on: NaN == NaN, 0.0 != -0.0.
+        code.op2(INVOKESTATIC, bits, 0);
+        code.op(LCMP, -3);
+        return materialize(negate ? IFEQ : IFNE);
+    }
+
+    // Turns the int on top of the stack into a boolean 0 or 1.
+    private Type materialize(int jumpIfFalse){
+        ClassFile.Label isFalse = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        code.jump(jumpIfFalse, isFalse, -1);
+        code.op(ICONST_1, 1);
+        code.jump(GOTO, end, 0);
+        code.setStack(code.stack() - 1);
+        code.mark(isFalse);
+        code.op(ICONST_0, 1);
+        code.mark(end);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value instanceof Boolean){
+            code.op((boolean)expr.value ? ICONST_1 : ICONST_0, 1);
+            return Type.BOOLEAN;
+        }
+        if(!(expr.value instanceof Double)) throw new Unsupported();
+        double value = (double)expr.value;
+        if(Double.doubleToRawLongBits(value) == 0L){
+            code.op(DCONST_0, 2);
+        } else if(value == 1.0){
+            code.op(DCONST_1, 2);
+        } else{
+            code.op2(LDC2_W, classFile.doubleConstant(value), 2);
+        }
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        if(expr.operator.type == TokenType.MINUS){
+            compileNumber(expr.right);
+            code.op(DNEG, 0);
+            return Type.NUMBER;
+        }
+        compileCondition(expr.right);
+        code.op(ICONST_1, 1);
+        code.op(IXOR, -1);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        code.op1(DLOAD, local(expr.name, expr.depth, expr.slot, false), 2);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        compileNumber(expr.value);
+        code.op(DUP2, 2);
+        code.op1(DSTORE, local(expr.name, expr.depth, expr.slot, true), -2);
+        return Type.NUMBER;
+    }
+
+    // JVM local holding the variable, which is either declared inside the
+    // region or an external loaded by the prologue.
+    private int local(Token name, int depth, int slot, boolean assign){
+        if(depth >= 0 && depth < scopes.size()){
+            Integer local = scopes.get(scopes.size() - 1 - depth).get(slot);
+            if(local == null) throw new Unsupported();
+            return local;
+        }
+        // Compiled functions never write outside their own frame.
+        if(assign && function != null) throw new Unsupported();
+        String key = depth < 0 ? name.lexeme : (depth - scopes.size()) + ":" + slot;
+        External external = externals.get(key);
+        if(external == null){
+            external = depth < 0
+                    ? new External(nextLocal, 0, 0, globalConstant(name))
+                    : new External(nextLocal, depth - scopes.size(), slot, -1);
+            nextLocal += 2;
+            externals.put(key, external);
+        }
+        if(assign){
+            external.assigned = true;
+            if(depth < 0) assignsGlobals = true;
+        }
+        return external.local;
+    }
+
+    private int globalConstant(Token name){
+        Integer index = globalConstants.get(name.lexeme);
+        if(index == null){
+            index = constants.size();
+            constants.add(name);
+            globalConstants.put(name.lexeme, index);
+        }
+        return index;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        ClassFile.Label end = new ClassFile.Label();
+        compileCondition(expr.left);
+        code.op(DUP, 1);
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end, -1);
+        code.op(POP, -1);
+        compileCondition(expr.right);
+        code.mark(end);
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        if(!(expr.callee instanceof Expr.Variable callee) || callee.depth >= 0) throw new Unsupported();
+        int name = globalConstant(callee.name);
+        int arity = expr.arguments.size();
+        if(isSelfCall(expr)){
+            // Direct recursion into our own body; call checked the global on entry.
+            selfReference = name;
+            code.op(0x2a, 1); // aload_0
+            code.op(0x2b, 1); // aload_1
+            for(Expr argument : expr.arguments){
+                compileNumber(argument);
+            }
+            String body = "(" + ENVIRONMENT + "D".repeat(arity) + ")D";
+            code.op2(INVOKEVIRTUAL, classFile.methodRef(classFile.thisClass(), "body", body), -2 - 2 * arity + 2);
+            return Type.NUMBER;
+        }
+        callsFunctions = true;
+        code.op(0x2a, 1); // aload_0
+        pushInt(code, name);
+        if(arity <= MAX_FIXED_ARITY){
+            for(Expr argument : expr.arguments){
+                compileNumber(argument);
+            }
+            String descriptor = "(I" + "D".repeat(arity) + ")D";
+            code.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "callGlobal" + arity, descriptor), -2 * arity);
+            return Type.NUMBER;
+        }
+        pushInt(code, arity);
+        code.op1(NEWARRAY, T_DOUBLE, 0);
+        for(int i = 0; i < arity; i++){
+            code.op(DUP, 1);
+            pushInt(code, i);
+            compileNumber(expr.arguments.get(i));
+            code.op(DASTORE, -4);
+        }
+        code.op2(INVOKEVIRTUAL, classFile.methodRef(BASE, "callGlobal", "(I[D)D"), -1);
+        return Type.NUMBER;
+    }
+
+    private boolean isSelfCall(Expr.Call expr){
+        return function != null && expr.callee instanceof Expr.Variable callee && callee.depth < 0
+                && callee.name.symbol == function.name.symbol && expr.arguments.size() == function.params.size();
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        throw new Unsupported();
+    }
+
+    // Arrays are objects, which compiled code has no representation for.
+    @Override
+    public Type visitArrayExpr(Expr.Array expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitIndexExpr(Expr.Index expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSetIndexExpr(Expr.SetIndex expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    private void deoptimize(){
+        code.op2(GETSTATIC, classFile.fieldRef("Deoptimize", "INSTANCE", "LDeoptimize;"), 1);
+        code.op(ATHROW, -1);
+    }
+
+    private static void pushInt(ClassFile.Code code, int value){
+        if(value >= -1 && value <= 5){
+            code.op(ICONST_0 + value, 1);
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+            code.op1(BIPUSH, value, 1);
+        } else{
+            code.op2(SIPUSH, value, 1);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+// Tiering state of one function declaration or while loop: counts invocations
+// or back edges until the region is hot, then holds its compiled code. Spawned
+// tasks and parallel workers share the syntax tree and so its profiles: code is
+// read once per use into a local, and every change is made under the lock.
+final class JitProfile {
+    static final int THRESHOLD = 1000;
+    // Regions that keep failing their assumptions stay in the tree-walker.
+    private static final int MAX_DEOPTIMIZATIONS = 3;
+
+    volatile CompiledCode code;
+    private int count;
+    private int deoptimizations;
+    private volatile boolean disabled;
+
+    // True once the region just became hot and should be compiled.
+    boolean tick(){
+        if(disabled) return false;
+        synchronized (this){
+            return !disabled && ++count == THRESHOLD;
+        }
+    }
+
+    // Installs the result of a compilation and returns it; null means the
+    // region can't be compiled.
+    synchronized CompiledCode install(CompiledCode compiled){
+        if(compiled == null){
+            disabled = true;
+            return null;
+        }
+        code = compiled;
+        return compiled;
+    }
+
+    boolean isDisabled(){
+        return disabled;
+    }
+
+    // Drops failed, unless another thread has already replaced it.
+    synchronized void deoptimize(CompiledCode failed){
+        if(code != failed) return;
+        code = null;
+        count = 0;
+        if(++deoptimizations >= MAX_DEOPTIMIZATIONS) disabled = true;
+    }
+}
@@ -0,0 +1,67 @@
+// Self-specializing implementation of Expr.Logical, see BinaryNode. Conditions
+// are nearly always booleans, so that case skips the general truthiness test.
+abstract class LogicalNode {
+    static final LogicalNode UNINITIALIZED = new Uninitialized();
+
+    private static final LogicalNode BOOLEAN_AND = new BooleanAnd();
+    private static final LogicalNode BOOLEAN_OR = new BooleanOr();
+    private static final LogicalNode GENERIC_AND = new GenericAnd();
+    private static final LogicalNode GENERIC_OR = new GenericOr();
+
+    Object execute(Interpreter interpreter, Expr.Logical expr){
+        return apply(interpreter, expr, interpreter.evaluate(expr.left));
+    }
+
+    // Finishes the evaluation once the left operand is known.
+    abstract Object apply(Interpreter interpreter, Expr.Logical expr, Object left);
+
+    static Object rewrite(Interpreter interpreter, Expr.Logical expr, LogicalNode node, Object left){
+        expr.node = node;
+        return node.apply(interpreter, expr, left);
+    }
+
+    private static final class Uninitialized extends LogicalNode {
+        @Override
+        Object apply(Interpreter interpreter, Expr.Logical expr, Object left) {
+            boolean isBoolean = left instanceof Boolean;
+            if(expr.operator.type == TokenType.OR){
+                return rewrite(interpreter, expr, isBoolean ? BOOLEAN_OR : GENERIC_OR, left);
+            }
+            return rewrite(interpreter, expr, isBoolean ? BOOLEAN_AND : GENERIC_AND, left);
+        }
+    }
+
+    private static final class BooleanAnd extends LogicalNode {
+        @Override
+        Object apply(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if(!(left instanceof Boolean)) return rewrite(interpreter, expr, GENERIC_AND, left);
+            if(!(boolean)left) return left;
+            return interpreter.evaluate(expr.right);
+        }
+    }
+
+    private static final class BooleanOr extends LogicalNode {
+        @Override
+        Object apply(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if(!(left instanceof Boolean)) return rewrite(interpreter, expr, GENERIC_OR, left);
+            if((boolean)left) return left;
+            return interpreter.evaluate(expr.right);
+        }
+    }
+
+    private static final class GenericAnd extends LogicalNode {
+        @Override
+        Object apply(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if(!Interpreter.isTruthy(left)) return left;
+            return interpreter.evaluate(expr.right);
+        }
+    }
+
+    private static final class GenericOr extends LogicalNode {
+        @Override
+        Object apply(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if(Interpreter.isTruthy(left)) return left;
+            return interpreter.evaluate(expr.right);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.Arrays;
+
+// Lox's array type. Elements are kept unboxed in a double[] for as long as
+// every one of them is a number; storing anything else moves them all into an
+// Object[], where they stay unless sort finds only numbers there again. Either grows by doubling as elements are pushed.
+// Errors carry no token: the caller knows the line and sets it with calledFrom.
+final class LoxArray {
+    private double[] numbers;
+    // Set once the array holds something other than a number; numbers is null then.
+    private Object[] values;
+    private int size;
+    // The interpreter that created the array, null in the VM. Parallel workers
+    // only modify arrays of their own, see Interpreter.checkWritable.
+    final Interpreter owner;
+
+    LoxArray(int capacity, Interpreter owner) {
+        this.numbers = new double[Math.max(capacity, 4)];
+        this.owner = owner;
+    }
+
+    static LoxArray filled(int size, Object value, Interpreter owner){
+        LoxArray array = new LoxArray(size, owner);
+        array.size = size;
+        array.fill(value);
+        return array;
+    }
+
+    int size(){
+        return size;
+    }
+
+    Object get(double index){
+        int i = checkIndex(index);
+        return values == null ? (Object) numbers[i] : values[i];
+    }
+
+    // Throws UnexpectedResult carrying the element when it isn't a number.
+    double getDouble(double index){
+        int i = checkIndex(index);
+        if(values == null) return numbers[i];
+        Object value = values[i];
+        if(value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    void set(double index, Object value){
+        int i = checkIndex(index);
+        if(values == null){
+            if(value instanceof Double){
+                numbers[i] = (double) value;
+                return;
+            }
+            box();
+        }
+        values[i] = value;
+    }
+
+    void setDouble(double index, double value){
+        int i = checkIndex(index);
+        if(values == null){
+            numbers[i] = value;
+        } else{
+            values[i] = value;
+        }
+    }
+
+    void push(Object value){
+        if(values == null && !(value instanceof Double)) box();
+        if(values == null){
+            if(size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+            numbers[size++] = (double) value;
+        } else{
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    Object pop(){
+        if(size == 0) throw new RuntimeError("Can't pop from an empty array.");
+        size--;
+        if(values == null) return numbers[size];
+        Object value = values[size];
+        values[size] = null;
+        return value;
+    }
+
+    void fill(Object value){
+        if(values == null && value instanceof Double){
+            Arrays.fill(numbers, 0, size, (double) value);
+            return;
+        }
+        if(values == null) box();
+        Arrays.fill(values, 0, size, value);
+    }
+
+    // Numbers in ascending order, or strings in lexicographic order.
+    void sort(){
+        if(values == null || unbox()){
+            Arrays.sort(numbers, 0, size);
+            return;
+        }
+        String[] strings = new String[size];
+        for(int i = 0; i < size; i++){
+            if(!LoxString.isString(values[i])) throw new RuntimeError("Can only sort numbers or strings.");
+            strings[i] = values[i].toString();
+        }
+        Arrays.sort(strings);
+        System.arraycopy(strings, 0, values, 0, size);
+    }
+
+    // Like System.arraycopy, overlapping ranges included.
+    static void copy(LoxArray source, double sourceIndex, LoxArray target, double targetIndex, double count){
+        int from = checkRange(source, sourceIndex, count);
+        int to = checkRange(target, targetIndex, count);
+        int length = (int) count;
+        if(target.values == null && source.values == null){
+            System.arraycopy(source.numbers, from, target.numbers, to, length);
+            return;
+        }
+        if(target.values == null) target.box();
+        if(source.values == null){
+            for(int i = 0; i < length; i++){
+                target.values[to + i] = source.numbers[from + i];
+            }
+        } else{
+            System.arraycopy(source.values, from, target.values, to, length);
+        }
+    }
+
+    // The elements from start up to, but not including, end.
+    LoxArray slice(double start, double end, Interpreter owner){
+        int from = checkRange(this, start, end - start);
+        int length = (int) (end - start);
+        LoxArray slice = new LoxArray(length, owner);
+        slice.size = length;
+        if(values == null){
+            System.arraycopy(numbers, from, slice.numbers, 0, length);
+        } else{
+            slice.numbers = null;
+            slice.values = Arrays.copyOfRange(values, from, from + Math.max(length, 4));
+            Arrays.fill(slice.values, length, slice.values.length, null);
+        }
+        return slice;
+    }
+
+    private void box(){
+        values = new Object[numbers.length];
+        for(int i = 0; i < size; i++){
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    // Moves the elements back into numbers if every one of them is a number again.
+    private boolean unbox(){
+        for(int i = 0; i < size; i++){
+            if(!(values[i] instanceof Double)) return false;
+        }
+        numbers = new double[values.length];
+        for(int i = 0; i < size; i++){
+            numbers[i] = (double) values[i];
+        }
+        values = null;
+        return true;
+    }
+
+    private int checkIndex(double index){
+        int i = (int) index;
+        if(i != index) throw new RuntimeError("Array index must be an integer.");
+        if(i < 0 || i >= size) throw new RuntimeError("Array index " + i + " is out of bounds.");
+        return i;
+    }
+
+    private static int checkRange(LoxArray array, double start, double count){
+        int from = (int) start;
+        int length = (int) count;
+        if(from != start || length != count) throw new RuntimeError("Array index must be an integer.");
+        if(from < 0 || length < 0 || from > array.size - length){
+            throw new RuntimeError("Array range is out of bounds.");
+        }
+        return from;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for(int i = 0; i < size; i++){
+            if(i > 0) text.append(", ");
+            text.append(Interpreter.stringify(values == null ? (Object) numbers[i] : values[i]));
+        }
+        return text.append("]").toString();
+    }
+}
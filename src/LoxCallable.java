@@ -1,5 +1,30 @@
-import java.util.List;
+// Callers check the arity, then come in through the entry point for their
+// argument count, so calls with up to four arguments need no argument array.
+// call takes the arguments as an array the callee may keep; the fixed-arity
+// entry points default to packing their arguments for it.
 interface LoxCallable {
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object[] NO_ARGUMENTS = new Object[0];
+
+    Object call(Interpreter interpreter, Object[] arguments);
     int arity();
+
+    default Object call0(Interpreter interpreter){
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter, Object a){
+        return call(interpreter, new Object[]{a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return call(interpreter, new Object[]{a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return call(interpreter, new Object[]{a, b, c});
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d){
+        return call(interpreter, new Object[]{a, b, c, d});
+    }
 }
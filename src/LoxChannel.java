@@ -0,0 +1,155 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lox's channel type, how spawned tasks hand each other values. A bounded
+// channel blocks senders while it is full, an unbounded one never does, and
+// receivers block while a channel is empty. A closed channel takes no more
+// values; receiving from it once it's drained gives nil right away. Waiting
+// uses locks and conditions rather than monitors, so a blocked virtual thread
+// gives its carrier thread back.
+final class LoxChannel {
+    // What poll returns for an empty channel; nil values are queued as NIL.
+    private static final Object EMPTY = new Object();
+    private static final Object NIL = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Object> values = new ArrayDeque<>();
+    // Integer.MAX_VALUE for an unbounded channel.
+    private final int capacity;
+    // One per select waiting on this channel, released by every send and close.
+    private final List<Semaphore> selectors = new ArrayList<>();
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void send(Object value){
+        lock.lock();
+        try {
+            while(!closed && values.size() >= capacity){
+                notFull.awaitUninterruptibly();
+            }
+            if(closed) throw new RuntimeError("Can't send on a closed channel.");
+            values.add(value == null ? NIL : value);
+            notEmpty.signal();
+            wakeSelectors();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive(){
+        lock.lock();
+        try {
+            while(values.isEmpty() && !closed){
+                notEmpty.awaitUninterruptibly();
+            }
+            return take();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close(){
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            wakeSelectors();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Receives from whichever of channels has a value first, or is closed, and
+    // returns [index of that channel, value]. Channels are checked from a
+    // random one on, so a busy channel can't starve the others.
+    static LoxArray select(LoxChannel[] channels, Interpreter owner){
+        Semaphore woken = null;
+        try {
+            for(;;){
+                int start = ThreadLocalRandom.current().nextInt(channels.length);
+                for(int i = 0; i < channels.length; i++){
+                    int index = (start + i) % channels.length;
+                    Object value = channels[index].poll();
+                    if(value == EMPTY) continue;
+                    LoxArray result = new LoxArray(2, owner);
+                    result.push((double) index);
+                    result.push(value);
+                    return result;
+                }
+                if(woken == null){
+                    // Registered before checking again, so a send in between isn't missed.
+                    woken = new Semaphore(0);
+                    for(LoxChannel channel : channels){
+                        channel.register(woken);
+                    }
+                } else{
+                    woken.acquireUninterruptibly();
+                }
+            }
+        } finally {
+            if(woken != null){
+                for(LoxChannel channel : channels){
+                    channel.unregister(woken);
+                }
+            }
+        }
+    }
+
+    private Object poll(){
+        lock.lock();
+        try {
+            if(values.isEmpty() && !closed) return EMPTY;
+            return take();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // With the lock held and a value queued or the channel closed.
+    private Object take(){
+        Object value = values.poll();
+        if(value == null) return null;
+        notFull.signal();
+        return value == NIL ? null : value;
+    }
+
+    private void wakeSelectors(){
+        for(Semaphore selector : selectors){
+            selector.release();
+        }
+    }
+
+    private void register(Semaphore selector){
+        lock.lock();
+        try {
+            selectors.add(selector);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unregister(Semaphore selector){
+        lock.lock();
+        try {
+            selectors.remove(selector);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
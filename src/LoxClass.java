@@ -1,19 +1,20 @@
-import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
     final String name;
-    private final Map<String, LoxFunction> methods;
+    private final Map<Symbol, LoxFunction> methods;
     final LoxClass superclass;
-    public LoxClass(String name, Map<String, LoxFunction> methods, LoxClass superclass) {
+    final Shape rootShape = new Shape();
+    public LoxClass(String name, Map<Symbol, LoxFunction> methods, LoxClass superclass) {
         this.name = name;
         this.methods = methods;
         this.superclass = superclass;
     }
 
-    LoxFunction findMethod(String name){
-        if(methods.containsKey(name)){
-            return methods.get(name);
+    LoxFunction findMethod(Symbol name){
+        LoxFunction method = methods.get(name);
+        if(method != null){
+            return method;
         }
         if(superclass != null){
             return superclass.findMethod(name);
@@ -26,19 +27,59 @@ public class LoxClass implements LoxCallable {
         return name;
     }
 
+    // Each entry point passes its arguments on to the initializer's. Only
+    // call0 can find none: the caller checked the arguments against arity().
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
+        LoxFunction initializer = findMethod(Symbol.INIT);
         if(initializer != null){
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = findMethod(Symbol.INIT);
+        if(initializer != null){
+            initializer.invoke0(interpreter, instance);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+        findMethod(Symbol.INIT).invoke1(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        findMethod(Symbol.INIT).invoke2(interpreter, instance, a, b);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+        findMethod(Symbol.INIT).invoke3(interpreter, instance, a, b, c);
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        LoxInstance instance = new LoxInstance(this);
+        findMethod(Symbol.INIT).invoke4(interpreter, instance, a, b, c, d);
+        return instance;
+    }
+
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
+        LoxFunction initializer = findMethod(Symbol.INIT);
         if(initializer == null) return 0;
         return initializer.arity();
     }
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Embeds Lox in a Java application. The engine compiles scripts into
+// PreparedScripts, which run any number of times, on any threads, each run
+// with its own interpreter, globals, output and errors. Compiling reports to
+// an ErrorReporter of its own as well, so unlike Main, which runs one program
+// per process, an engine keeps no state between calls but its ScriptCache,
+// and one serves a whole application.
+final class LoxEngine {
+    static final int DEFAULT_CACHE_CAPACITY = 256;
+
+    // Where imported modules are loaded, see ModuleLoader.
+    private final ForkJoinPool pool;
+    // Whether the scripts' runs may move hot code to the Jit.
+    private final boolean jitEnabled;
+    // What prepare has compiled.
+    final ScriptCache scripts;
+
+    LoxEngine() {
+        this(ForkJoinPool.commonPool(), true, DEFAULT_CACHE_CAPACITY);
+    }
+
+    LoxEngine(ForkJoinPool pool, boolean jitEnabled, int cacheCapacity) {
+        this.pool = pool;
+        this.jitEnabled = jitEnabled;
+        this.scripts = new ScriptCache(cacheCapacity);
+    }
+
+    // Like compile, except that a source prepared before, for the same
+    // directory, comes out of the cache.
+    PreparedScript prepare(String source) throws CompileError {
+        return prepare(source, Paths.get("").toAbsolutePath());
+    }
+
+    PreparedScript prepare(String source, Path directory) throws CompileError {
+        byte[] hash = AstCache.sha256(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+        String key = directory + "\0" + HexFormat.of().formatHex(hash);
+        PreparedScript script = scripts.get(key);
+        if(script != null) return script;
+        return scripts.put(key, compile(source, directory));
+    }
+
+    // Imports are relative to the working directory.
+    PreparedScript compile(String source) throws CompileError {
+        return compile(source, Paths.get("").toAbsolutePath());
+    }
+
+    PreparedScript compile(String source, Path directory) throws CompileError {
+        List<String> messages = new ArrayList<>();
+        ErrorReporter errors = new ErrorReporter(messages::add);
+        List<Stmt> statements = new Parser(new MyScanner(source, errors).scanTokens(), errors).parse();
+        if(!errors.hadError()) new Resolver(errors).resolve(statements);
+        if(!errors.hadError()) statements = new Optimizer().optimize(statements);
+        return link(statements, directory, errors, messages);
+    }
+
+    // Reads and writes the file's AstCache the way Main does.
+    PreparedScript compile(Path file) throws IOException, CompileError {
+        Path absolute = file.toAbsolutePath();
+        AstCache cache = AstCache.open(absolute);
+        List<String> messages = new ArrayList<>();
+        ErrorReporter errors = new ErrorReporter(messages::add);
+        List<Stmt> statements = cache.read();
+        if(statements == null){
+            statements = new Parser(cache.scanner(errors).scanTokens(), errors).parse();
+            if(!errors.hadError()) new Resolver(errors).resolve(statements);
+            if(!errors.hadError()) statements = new Optimizer().optimize(statements);
+            if(!errors.hadError()) cache.write(statements);
+        }
+        return link(statements, absolute.getParent(), errors, messages);
+    }
+
+    private PreparedScript link(List<Stmt> statements, Path directory, ErrorReporter errors, List<String> messages)
+            throws CompileError {
+        if(!errors.hadError()) new ModuleLoader(errors, pool).load(statements, directory);
+        if(errors.hadError()) throw new CompileError(messages);
+        return new PreparedScript(statements, jitEnabled);
+    }
+}
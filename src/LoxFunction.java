@@ -1,38 +1,241 @@
-import java.util.List;
-
 public class LoxFunction implements LoxCallable{
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    final Environment closure;
     private final boolean isInitializer;
+    // Methods take their receiver in slot 0 of the call frame, ahead of the parameters.
+    private final boolean isMethod;
+    // Only set on bound methods, i.e. methods used as first-class values.
+    final LoxInstance receiver;
+
+    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isMethod) {
+        this(declaration, closure, isInitializer, isMethod, null);
+    }
 
-    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    private LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer,
+                        boolean isMethod, LoxInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
     }
 
     LoxFunction bind(LoxInstance instance){
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment,isInitializer);
+        return new LoxFunction(declaration, closure, isInitializer, isMethod, instance);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke2(interpreter, receiver, a, b);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke3(interpreter, receiver, a, b, c);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return invoke4(interpreter, receiver, a, b, c, d);
+    }
+
+    // Calls the function with "this" bound straight into the new frame. Tail
+    // calls the body leaves behind run here in turn, so a chain of them takes
+    // no Java stack however long it gets.
+    Object invoke(Interpreter interpreter, LoxInstance thisValue, Object[] arguments) {
+        LoxFunction function = this;
+        for(;;){
+            Object result = function.invokeCompiled(interpreter, arguments);
+            if(result != null) return result;
+            Environment frame = function.frame(interpreter, thisValue);
+            int first = function.firstParameter();
+            for (int i = 0; i < arguments.length; i++) {
+                frame.defineAt(first + i, arguments[i]);
+            }
+            Completion completion = function.execute(interpreter, frame);
+            if(completion != Completion.TAIL_CALL || function.isInitializer){
+                return function.complete(interpreter, thisValue, completion);
+            }
+            function = interpreter.tailFunction;
+            thisValue = interpreter.tailReceiver;
+            arguments = interpreter.tailArguments;
+        }
+    }
+
+    // The fixed-arity entries pass numbers to compiled code, or write the
+    // arguments into the frame directly; neither takes an argument array.
+    Object invoke0(Interpreter interpreter, LoxInstance thisValue) {
+        CompiledCode code = compiledCode(interpreter);
+        if(code != null){
+            try {
+                return code.call0(closure);
+            } catch (Deoptimize deoptimize){
+                // Falls through to the tree-walker.
+            }
+            declaration.profile.deoptimize(code);
+        }
+        Environment frame = frame(interpreter, thisValue);
+        return complete(interpreter, thisValue, execute(interpreter, frame));
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance thisValue, Object a) {
+        CompiledCode code = compiledCode(interpreter);
+        if(code != null){
+            try {
+                if(a instanceof Double x) return code.call1(closure, x);
+            } catch (Deoptimize deoptimize){
+                // Falls through to the tree-walker.
+            }
+            declaration.profile.deoptimize(code);
         }
+        Environment frame = frame(interpreter, thisValue);
+        int first = firstParameter();
+        frame.defineAt(first, a);
+        return complete(interpreter, thisValue, execute(interpreter, frame));
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance thisValue, Object a, Object b) {
+        CompiledCode code = compiledCode(interpreter);
+        if(code != null){
+            try {
+                if(a instanceof Double x && b instanceof Double y) return code.call2(closure, x, y);
+            } catch (Deoptimize deoptimize){
+                // Falls through to the tree-walker.
+            }
+            declaration.profile.deoptimize(code);
+        }
+        Environment frame = frame(interpreter, thisValue);
+        int first = firstParameter();
+        frame.defineAt(first, a);
+        frame.defineAt(first + 1, b);
+        return complete(interpreter, thisValue, execute(interpreter, frame));
+    }
+
+    Object invoke3(Interpreter interpreter, LoxInstance thisValue, Object a, Object b, Object c) {
+        CompiledCode code = compiledCode(interpreter);
+        if(code != null){
+            try {
+                if(a instanceof Double x && b instanceof Double y && c instanceof Double z){
+                    return code.call3(closure, x, y, z);
+                }
+            } catch (Deoptimize deoptimize){
+                // Falls through to the tree-walker.
+            }
+            declaration.profile.deoptimize(code);
+        }
+        Environment frame = frame(interpreter, thisValue);
+        int first = firstParameter();
+        frame.defineAt(first, a);
+        frame.defineAt(first + 1, b);
+        frame.defineAt(first + 2, c);
+        return complete(interpreter, thisValue, execute(interpreter, frame));
+    }
+
+    Object invoke4(Interpreter interpreter, LoxInstance thisValue, Object a, Object b, Object c, Object d) {
+        CompiledCode code = compiledCode(interpreter);
+        if(code != null){
+            try {
+                if(a instanceof Double x && b instanceof Double y && c instanceof Double z
+                        && d instanceof Double w){
+                    return code.call4(closure, x, y, z, w);
+                }
+            } catch (Deoptimize deoptimize){
+                // Falls through to the tree-walker.
+            }
+            declaration.profile.deoptimize(code);
+        }
+        Environment frame = frame(interpreter, thisValue);
+        int first = firstParameter();
+        frame.defineAt(first, a);
+        frame.defineAt(first + 1, b);
+        frame.defineAt(first + 2, c);
+        frame.defineAt(first + 3, d);
+        return complete(interpreter, thisValue, execute(interpreter, frame));
+    }
+
+    // A new call frame, with "this" already bound for methods.
+    private Environment frame(Interpreter interpreter, LoxInstance thisValue){
+        Environment environment = new Environment(closure, declaration.slotCount, interpreter);
+        if(isMethod) environment.defineAt(0, thisValue);
+        return environment;
+    }
+
+    private int firstParameter(){
+        return isMethod ? 1 : 0;
+    }
+
+    private Completion execute(Interpreter interpreter, Environment frame) {
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue){
-            if(isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+            return interpreter.executeBlock(declaration.body, frame);
+        } catch (RuntimeError error){
+            throw error.leaving(declaration.name.lexeme);
+        } catch (StackOverflowError error){
+            // Each Lox call takes several Java frames here, see Interpreter.STACK_SIZE.
+            throw new RuntimeError("Stack overflow.", declaration.name);
         }
-        if(isInitializer) return closure.getAt(0, "this");
+    }
+
+    // The call's result once the body has completed.
+    private Object complete(Interpreter interpreter, LoxInstance thisValue, Completion completion){
+        if(isInitializer) return thisValue;
+        if(completion == Completion.RETURN) return interpreter.takeReturnValue();
+        if(completion == Completion.NORMAL) return null;
+        // A tail call continues in invoke's loop.
+        return interpreter.tailFunction.invoke(interpreter, interpreter.tailReceiver, interpreter.tailArguments);
+    }
+
+    // Whether the call should check for, or count towards, compiled code.
+    private boolean compiles(Interpreter interpreter){
+        return !isMethod && interpreter.jitEnabled && !declaration.profile.isDisabled();
+    }
+
+    // The compiled body to run the call with, compiling it if this is the call
+    // that makes the declaration hot. Null when the tree-walker runs the call.
+    private CompiledCode compiledCode(Interpreter interpreter){
+        if(!compiles(interpreter)) return null;
+        JitProfile profile = declaration.profile;
+        CompiledCode code = profile.code;
+        if(code == null && profile.tick()){
+            code = profile.install(Jit.compile(declaration, interpreter.globals));
+        }
+        return code;
+    }
+
+    // Runs the body as compiled code once the declaration is hot. Returns null
+    // when the tree-walker has to run the call instead.
+    private Object invokeCompiled(Interpreter interpreter, Object[] arguments){
+        CompiledCode code = compiledCode(interpreter);
+        if(code == null) return null;
+        double[] numbers = CompiledCode.numbers(arguments);
+        if(numbers != null){
+            try {
+                return code.call(closure, numbers);
+            } catch (Deoptimize deoptimize){
+                // Nothing has been written yet, the interpreter starts over.
+            }
+        }
+        declaration.profile.deoptimize(code);
         return null;
     }
 
+    boolean isPlainFunction(){
+        return !isMethod;
+    }
 
     @Override
     public int arity() {
@@ -1,23 +1,38 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    Shape shape;
+    Object[] fields = new Object[4];
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
     }
     Object get(Token name){
-        if(fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.symbol);
+        if(slot >= 0){
+            return fields[slot];
         }
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = klass.findMethod(name.symbol);
         if(method != null) return method.bind(this);
         throw new RuntimeError("Undefined property '" + name.lexeme + "'.", name);
     }
     void set(Token name, Object value){
-        fields.put(name.lexeme, value);
+        int slot = shape.slotOf(name.symbol);
+        if(slot < 0){
+            addField(shape.withField(name.symbol));
+            slot = shape.size() - 1;
+        }
+        fields[slot] = value;
+    }
+    // Moves the instance to a shape with one more field than its current one.
+    // The array grows first, so the shape never names a slot it doesn't have.
+    void addField(Shape next){
+        if(next.size() > fields.length){
+            fields = Arrays.copyOf(fields, fields.length * 2);
+        }
+        shape = next;
     }
     @Override
     public String toString(){
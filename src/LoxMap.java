@@ -0,0 +1,184 @@
+// Lox's map type: an open-addressing table with linear probing, its keys,
+// values and key hashes in parallel arrays, so an insert allocates nothing
+// unless the table grows. Removal shifts the following entries of the probe
+// run back instead of leaving tombstones. Keys compare like Interpreter.isEqual:
+// numbers, strings and booleans by value, everything else by identity.
+final class LoxMap {
+    // Stands in for a nil key; an empty slot's key is null.
+    private static final Object NIL = new Object();
+    private static final int MIN_CAPACITY = 8;
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int size;
+    // The interpreter that created the map, null in the VM. Parallel workers
+    // only modify maps of their own, see Interpreter.checkWritable.
+    final Interpreter owner;
+
+    LoxMap(int expected, Interpreter owner) {
+        allocate(capacityFor(expected));
+        this.owner = owner;
+    }
+
+    int size(){
+        return size;
+    }
+
+    // Null for a missing key.
+    Object get(Object key){
+        key = normalize(key);
+        int slot = find(key, hash(key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    boolean has(Object key){
+        key = normalize(key);
+        return find(key, hash(key)) >= 0;
+    }
+
+    void put(Object key, Object value){
+        key = normalize(key);
+        int hash = hash(key);
+        int mask = keys.length - 1;
+        for(int slot = hash & mask; ; slot = (slot + 1) & mask){
+            if(keys[slot] == null){
+                keys[slot] = key;
+                values[slot] = value;
+                hashes[slot] = hash;
+                // At most three quarters full.
+                if(++size > keys.length - (keys.length >> 2)) resize(keys.length * 2);
+                return;
+            }
+            if(hashes[slot] == hash && equal(keys[slot], key)){
+                values[slot] = value;
+                return;
+            }
+        }
+    }
+
+    // The removed value, or null if the key wasn't there.
+    Object remove(Object key){
+        key = normalize(key);
+        int slot = find(key, hash(key));
+        if(slot < 0) return null;
+        Object value = values[slot];
+        int mask = keys.length - 1;
+        // Moves later entries of the run into the gap when their home slot allows it.
+        int gap = slot;
+        for(int next = (gap + 1) & mask; keys[next] != null; next = (next + 1) & mask){
+            int home = hashes[next] & mask;
+            if(((next - home) & mask) >= ((next - gap) & mask)){
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                hashes[gap] = hashes[next];
+                gap = next;
+            }
+        }
+        keys[gap] = null;
+        values[gap] = null;
+        size--;
+        return value;
+    }
+
+    // Makes room for count entries in total, so adding them won't resize.
+    void reserve(int count){
+        int capacity = capacityFor(count);
+        if(capacity > keys.length) resize(capacity);
+    }
+
+    LoxArray keys(Interpreter owner){
+        LoxArray array = new LoxArray(size, owner);
+        for(Object key : keys){
+            if(key != null) array.push(key == NIL ? null : key);
+        }
+        return array;
+    }
+
+    LoxArray values(Interpreter owner){
+        LoxArray array = new LoxArray(size, owner);
+        for(int slot = 0; slot < keys.length; slot++){
+            if(keys[slot] != null) array.push(values[slot]);
+        }
+        return array;
+    }
+
+    private int find(Object key, int hash){
+        int mask = keys.length - 1;
+        for(int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask){
+            if(hashes[slot] == hash && equal(keys[slot], key)) return slot;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity){
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] == null) continue;
+            int slot = oldHashes[i] & mask;
+            while(keys[slot] != null){
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    private void allocate(int capacity){
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+    }
+
+    // The smallest power of two that holds count entries below the load limit.
+    private static int capacityFor(int count){
+        int capacity = MIN_CAPACITY;
+        while(capacity - (capacity >> 2) < count && capacity < 1 << 30){
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    // Concatenated strings are stored flattened, so they hash by their chars.
+    private static Object normalize(Object key){
+        if(key == null) return NIL;
+        if(key instanceof LoxString) return key.toString();
+        return key;
+    }
+
+    private static int hash(Object key){
+        int hash;
+        if(key instanceof Double){
+            // Agrees with Double.equals, which isEqual relies on.
+            hash = Long.hashCode(Double.doubleToLongBits((double) key));
+        } else if(key instanceof String || key instanceof Boolean){
+            hash = key.hashCode();
+        } else{
+            hash = System.identityHashCode(key);
+        }
+        // Spreads the bits, since the table only looks at the low ones.
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equal(Object a, Object b){
+        return a == b || (a instanceof Double || a instanceof String || a instanceof Boolean) && a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        for(int slot = 0; slot < keys.length; slot++){
+            if(keys[slot] == null) continue;
+            if(text.length() > 1) text.append(", ");
+            text.append(Interpreter.stringify(keys[slot] == NIL ? null : keys[slot]))
+                    .append(": ").append(Interpreter.stringify(values[slot]));
+        }
+        return text.append("}").toString();
+    }
+}
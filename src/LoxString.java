@@ -0,0 +1,72 @@
+// A Lox string built by concatenation. Strings share one append buffer and
+// each knows how much of it is theirs, so appending to the newest string of a
+// buffer, as "s = s + line" does, adds to the buffer in place instead of
+// copying s. Appending to an older string, one the buffer has grown past,
+// starts a new buffer. The chars are only copied into a java.lang.String when
+// the value is printed or compared; short results are plain Strings right away.
+// Lox strings are therefore either a String or a LoxString, see isString.
+final class LoxString {
+    // Below this length copying is cheaper than sharing a buffer.
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private LoxString(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    static boolean isString(Object value){
+        return value instanceof String || value instanceof LoxString;
+    }
+
+    // Both operands must satisfy isString.
+    static Object concat(Object left, Object right){
+        CharSequence tail = chars(right);
+        int length = length(left) + tail.length();
+        if(length < MIN_LENGTH) return left.toString() + right.toString();
+        if(left instanceof LoxString string){
+            StringBuilder buffer = string.buffer;
+            // Threads may append to the same string.
+            synchronized (buffer){
+                if(buffer.length() == string.length){
+                    buffer.append(tail);
+                    return new LoxString(buffer, length);
+                }
+            }
+        }
+        StringBuilder buffer = new StringBuilder(Math.max(length * 2, MIN_LENGTH * 2));
+        buffer.append(chars(left)).append(tail);
+        return new LoxString(buffer, length);
+    }
+
+    private static int length(Object value){
+        return value instanceof LoxString string ? string.length : ((String) value).length();
+    }
+
+    // The flattened String if there is one, so it isn't read under the lock.
+    private static CharSequence chars(Object value){
+        if(value instanceof String string) return string;
+        LoxString string = (LoxString) value;
+        if(string.flat != null) return string.flat;
+        return string.prefix();
+    }
+
+    private CharSequence prefix(){
+        synchronized (buffer){
+            return buffer.substring(0, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if(result == null){
+            result = prefix().toString();
+            flat = result;
+        }
+        return result;
+    }
+}
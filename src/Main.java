@@ -2,29 +2,63 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 
 
 public class Main {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // The command line runs one program at a time; LoxEngine is the way to run several.
+    private static final ErrorReporter errors = ErrorReporter.standardError();
+    private static final Interpreter interpreter = new Interpreter(errors);
+    private static final VM vm = new VM(errors);
+    private static final ModuleLoader modules = new ModuleLoader(errors);
+    private static boolean useVm = false;
+    private static boolean printCacheStats = false;
     public static void main(String[] args) throws IOException {
         // Checking the run-options
-        if(args.length > 1){
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int first = 0;
+        for(; first < args.length && args[first].startsWith("--"); first++){
+            switch (args[first]){
+                case "--vm": useVm = true; break;
+                case "--max-frames": vm.maxFrames = frameLimit(args, ++first); break;
+                case "--ic-stats": printCacheStats = true; break;
+                case "--no-jit": interpreter.jitEnabled = false; break;
+                default: usage();
+            }
+        }
+        if(args.length - first > 1){
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
+    private static void usage(){
+        System.out.println("Usage: jlox [--vm] [--max-frames n] [--ic-stats] [--no-jit] [script]");
+        System.out.println("  --vm            run on the bytecode VM. Non-tail calls nest hundreds of");
+        System.out.println("                  thousands deep in the tree-walker (a 256 MB stack; spawned");
+        System.out.println("                  tasks get far less) and up to --max-frames deep in the VM.");
+        System.out.println("  --max-frames n  the VM's call depth limit (default " + VM.DEFAULT_MAX_FRAMES + ").");
+        System.out.println("  --ic-stats      print the inline caches' hit counts after the run.");
+        System.out.println("  --no-jit        never compile hot code to Java bytecode.");
+        System.exit(64);
+    }
+    private static int frameLimit(String[] args, int index){
+        try {
+            int limit = Integer.parseInt(args[index]);
+            if(limit > 0) return limit;
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e){
+            // Falls through to the usage.
+        }
+        usage();
+        return 0;
+    }
     // Waiting for user-input to run
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
@@ -34,49 +68,51 @@ public class Main {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
-            hadError = false;
+            List<Stmt> statements = new Parser(new MyScanner(line, errors).scanTokens(), errors).parse();
+            if(!errors.hadError()) new Resolver(errors).resolve(statements);
+            if(!errors.hadError()) statements = new Optimizer().optimize(statements);
+            run(statements, Paths.get("").toAbsolutePath());
+            errors.reset();
         }
     }
     // Running a file in the given path
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
-    }
-    private static void run(String source){
-        MyScanner scanner = new MyScanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if(hadError) return;
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if(hadError) return;
-        interpreter.interpret(statements);
+        // A resolved tree cached from an earlier run skips the front end; otherwise
+        // the scanner reads the mapped UTF-8 bytes directly.
+        Path file = Paths.get(path).toAbsolutePath();
+        AstCache cache = AstCache.open(file);
+        List<Stmt> statements = cache.read();
+        if(statements == null){
+            statements = new Parser(cache.scanner(errors).scanTokens(), errors).parse();
+            if(!errors.hadError()) new Resolver(errors).resolve(statements);
+            if(!errors.hadError()) statements = new Optimizer().optimize(statements);
+            if(!errors.hadError()) cache.write(statements);
+        }
+        run(statements, file.getParent());
+        if(printCacheStats) printCacheStats();
 
+        if(errors.hadError()) System.exit(65);
+        if(errors.hadRuntimeError()) System.exit(70);
     }
-    static void error(int line, String message){
-        report(line, "", message);
-    }
-
-    private static void report(int line, String where, String message) {
+    // Runs resolved statements; imports are resolved relative to directory.
+    private static void run(List<Stmt> statements, Path directory){
+        if(errors.hadError()) return;
+        modules.load(statements, directory);
+        if(errors.hadError()) return;
+        if(useVm){
+            VMFunction script = new Compiler(errors).compile(statements);
+            if(errors.hadError()) return;
+            vm.interpret(script);
+        } else{
+            interpreter.interpret(statements);
+        }
 
-        System.err.println("[line" + line + "] Error" + where + ":" + message);
-        hadError = true;
     }
-    static void error(Token token, String message){
-        if(token.type == TokenType.EOF){
-            report(token.line, " at the end", message);
-        }else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static void printCacheStats(){
+        List<InlineCache> caches = new ArrayList<>(interpreter.inlineCaches);
+        caches.sort(Comparator.comparingInt(cache -> cache.name.line));
+        for(InlineCache cache : caches){
+            System.err.println(cache);
         }
     }
-    static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
 }
@@ -0,0 +1,22 @@
+import java.nio.file.Path;
+import java.util.List;
+
+// A source file brought in by import. The ModuleLoader scans, parses and
+// resolves it once, however many imports refer to it; which modules have run
+// is tracked by the Interpreter and the VM themselves.
+final class Module {
+    final Path path;
+    // Set by the loader once the module is parsed and resolved.
+    List<Stmt> statements = List.of();
+    // The module compiled for the VM, filled in by the Compiler on first use.
+    VMFunction script;
+
+    Module(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Loads the modules a program imports, directly or through other modules.
+// Each module gets its own ForkJoinPool task that scans, parses and resolves
+// it, or reads its AstCache, and forks tasks for the modules it imports in
+// turn, so independent modules go through the front end in parallel. A path is
+// loaded once per loader; imports of it are linked to the same Module.
+// Problems are reported to the loader's ErrorReporter like any other compile error.
+final class ModuleLoader {
+    private final ConcurrentHashMap<Path, Module> modules = new ConcurrentHashMap<>();
+    private final ErrorReporter errors;
+    private final ForkJoinPool pool;
+
+    ModuleLoader(ErrorReporter errors) {
+        this(errors, ForkJoinPool.commonPool());
+    }
+
+    ModuleLoader(ErrorReporter errors, ForkJoinPool pool) {
+        this.errors = errors;
+        this.pool = pool;
+    }
+
+    // Links the imports in statements, with paths relative to directory, and
+    // returns once every module they pull in is loaded.
+    void load(List<Stmt> statements, Path directory){
+        List<LoadTask> tasks = link(statements, directory);
+        if(tasks.isEmpty()) return;
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    // Points each top-level import at its Module. Returns tasks only for the
+    // modules seen for the first time; the others are already on their way.
+    private List<LoadTask> link(List<Stmt> statements, Path directory){
+        List<LoadTask> tasks = new ArrayList<>();
+        for(Stmt statement : statements){
+            if(!(statement instanceof Stmt.Import stmt)) continue;
+            Path path = directory.resolve((String)stmt.path.literal).toAbsolutePath().normalize();
+            Module module = modules.get(path);
+            if(module == null){
+                Module created = new Module(path);
+                module = modules.putIfAbsent(path, created);
+                if(module == null){
+                    module = created;
+                    tasks.add(new LoadTask(created, stmt.path));
+                }
+            }
+            stmt.module = module;
+        }
+        return tasks;
+    }
+
+    private final class LoadTask extends RecursiveAction {
+        private final Module module;
+        // The path token of the import that first asked for the module.
+        private final Token importedBy;
+
+        LoadTask(Module module, Token importedBy) {
+            this.module = module;
+            this.importedBy = importedBy;
+        }
+
+        @Override
+        protected void compute() {
+            AstCache cache;
+            try {
+                cache = AstCache.open(module.path);
+            } catch (IOException e){
+                errors.error(importedBy, "Can't read module " + module.path + ".");
+                return;
+            }
+            List<Stmt> statements = cache.read();
+            boolean cached = statements != null;
+            if(!cached){
+                statements = new Parser(cache.scanner(errors).scanTokens(), errors).parse();
+                // A statement that failed to parse is null; the error is already reported.
+                if(statements.contains(null)) return;
+            }
+
+            List<LoadTask> imports = link(statements, module.path.getParent());
+            for(LoadTask task : imports){
+                task.fork();
+            }
+            if(!cached){
+                new Resolver(errors).resolve(statements);
+                // Errors anywhere abort the run, so this may skip a cache it could have written.
+                if(!errors.hadError()){
+                    statements = new Optimizer().optimize(statements);
+                    cache.write(statements);
+                }
+            }
+            module.statements = statements;
+            for(LoadTask task : imports){
+                task.join();
+            }
+        }
+    }
+}
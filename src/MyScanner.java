@@ -1,39 +1,96 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+// Scans either a CharSequence or UTF-8 bytes, e.g. a memory-mapped file,
+// without copying the source into a String first. Every character Lox syntax
+// cares about is ASCII, so bytes are scanned as they are and only decoded for
+// the lexemes that get materialized: identifiers, numbers and strings. All
+// other tokens share one constant lexeme per type.
 public class MyScanner {
-    private final String source;
+    private final CharSequence chars;
+    private final ByteBuffer bytes;
+    private final int length;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
     private int line = 1;
-    private static final Map<String, TokenType> keywords;
+    private Symbol[] symbols = new Symbol[64];
+    private int symbolCount = 0;
+    private final ErrorReporter errors;
+    private static final String[] lexemes = new String[TokenType.values().length];
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",TokenType.AND);
-        keywords.put("class",TokenType.CLASS);
-        keywords.put("else",TokenType.ELSE);
-        keywords.put("false",TokenType.FALSE);
-        keywords.put("for",TokenType.FOR);
-        keywords.put("fun",TokenType.FUN);
-        keywords.put("if",TokenType.IF);
-        keywords.put("nil",TokenType.NIL);
-        keywords.put("or",TokenType.OR);
-        keywords.put("print",TokenType.PRINT);
-        keywords.put("return",TokenType.RETURN);
-        keywords.put("super",TokenType.SUPER);
-        keywords.put("this",TokenType.THIS);
-        keywords.put("true",TokenType.TRUE);
-        keywords.put("var",TokenType.VAR);
-        keywords.put("while",TokenType.WHILE);
-
-    }
-
-    public MyScanner(String source) {
-        this.source = source;
+        lexeme(TokenType.LEFT_PAREN, "(");
+        lexeme(TokenType.RIGHT_PAREN, ")");
+        lexeme(TokenType.LEFT_BRACE, "{");
+        lexeme(TokenType.RIGHT_BRACE, "}");
+        lexeme(TokenType.LEFT_BRACKET, "[");
+        lexeme(TokenType.RIGHT_BRACKET, "]");
+        lexeme(TokenType.COMMA, ",");
+        lexeme(TokenType.DOT, ".");
+        lexeme(TokenType.MINUS, "-");
+        lexeme(TokenType.PLUS, "+");
+        lexeme(TokenType.SEMICOLON, ";");
+        lexeme(TokenType.SLASH, "/");
+        lexeme(TokenType.STAR, "*");
+        lexeme(TokenType.BANG, "!");
+        lexeme(TokenType.BANG_EQUAL, "!=");
+        lexeme(TokenType.EQUAL, "=");
+        lexeme(TokenType.EQUAL_EQUAL, "==");
+        lexeme(TokenType.GREATER, ">");
+        lexeme(TokenType.GREATER_EQUAL, ">=");
+        lexeme(TokenType.LESS, "<");
+        lexeme(TokenType.LESS_EQUAL, "<=");
+        lexeme(TokenType.AND, "and");
+        lexeme(TokenType.CLASS, "class");
+        lexeme(TokenType.ELSE, "else");
+        lexeme(TokenType.FALSE, "false");
+        lexeme(TokenType.FOR, "for");
+        lexeme(TokenType.FUN, "fun");
+        lexeme(TokenType.IF, "if");
+        lexeme(TokenType.NIL, "nil");
+        lexeme(TokenType.OR, "or");
+        lexeme(TokenType.PRINT, "print");
+        lexeme(TokenType.RETURN, "return");
+        lexeme(TokenType.SUPER, "super");
+        lexeme(TokenType.THIS, "this");
+        lexeme(TokenType.TRUE, "true");
+        lexeme(TokenType.VAR, "var");
+        lexeme(TokenType.WHILE, "while");
+        lexeme(TokenType.IMPORT, "import");
     }
+
+    private static void lexeme(TokenType type, String text){
+        lexemes[type.ordinal()] = text;
+    }
+
+    public MyScanner(CharSequence source, ErrorReporter errors) {
+        this.chars = source;
+        this.bytes = null;
+        this.length = source.length();
+        this.errors = errors;
+    }
+
+    // Scans the UTF-8 encoded bytes between the buffer's position and limit.
+    public MyScanner(ByteBuffer utf8, ErrorReporter errors) {
+        this.chars = null;
+        this.bytes = utf8.slice();
+        this.length = bytes.limit();
+        this.errors = errors;
+    }
+
+    // Maps the file instead of reading it; the mapping outlives the channel.
+    static MyScanner ofFile(Path path, ErrorReporter errors) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MyScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), errors);
+        }
+    }
+
     public List<Token> scanTokens(){
         while(!isAtEnd()){
             start = current;
@@ -44,7 +101,22 @@ public class MyScanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
+    }
+
+    // Bytes above 0x7F come out as chars above 0x7F, which match no syntax.
+    private char charAt(int index){
+        if(bytes != null) return (char)(bytes.get(index) & 0xFF);
+        return chars.charAt(index);
+    }
+
+    private String text(int from, int to){
+        if(bytes != null){
+            byte[] utf8 = new byte[to - from];
+            bytes.get(from, utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+        return chars.subSequence(from, to).toString();
     }
 
     private void scanToken(){
@@ -58,6 +130,10 @@ public class MyScanner {
             break;
             case '}': addToken(TokenType.RIGHT_BRACE);
             break;
+            case '[': addToken(TokenType.LEFT_BRACKET);
+            break;
+            case ']': addToken(TokenType.RIGHT_BRACKET);
+            break;
             case ',': addToken(TokenType.COMMA);
             break;
             case '.': addToken(TokenType.DOT);
@@ -101,7 +177,11 @@ public class MyScanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else{
-                    Main.error(line,"Unexpected character.");
+                    // One error per character, not per byte of its encoding.
+                    if(bytes != null && c >= 0xC0){
+                        while(!isAtEnd() && (charAt(current) & 0xC0) == 0x80) current++;
+                    }
+                    errors.error(line,"Unexpected character.");
                 }
             break;
 
@@ -110,11 +190,102 @@ public class MyScanner {
     }
 
     private void identifier() {
-        while (isAlphaNumeric(peek())) advance();
-        String key = source.substring(start, current);
-        TokenType type = keywords.get(key);
-        if(type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        // Same hash as String.hashCode, identifiers being ASCII.
+        int hash = charAt(start);
+        while (isAlphaNumeric(peek())) hash = 31 * hash + advance();
+        TokenType type = identifierType();
+        if(type == TokenType.IDENTIFIER){
+            tokens.add(new Token(intern(hash), line));
+        } else{
+            addToken(type);
+        }
+    }
+
+    // Open-addressing table of the symbols seen so far, probed with the source
+    // text itself, so a repeated identifier is never materialized again.
+    private Symbol intern(int hash){
+        int mask = symbols.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        for(Symbol symbol = symbols[index]; symbol != null; symbol = symbols[index]){
+            if(symbol.hashCode() == hash && isCurrent(symbol.name)) return symbol;
+            index = (index + 1) & mask;
+        }
+        Symbol symbol = Symbol.of(text(start, current));
+        symbols[index] = symbol;
+        if(++symbolCount * 2 > symbols.length) growSymbols();
+        return symbol;
+    }
+
+    private boolean isCurrent(String name){
+        if(name.length() != current - start) return false;
+        for(int i = 0; i < name.length(); i++){
+            if(charAt(start + i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void growSymbols(){
+        Symbol[] old = symbols;
+        symbols = new Symbol[old.length * 2];
+        int mask = symbols.length - 1;
+        for(Symbol symbol : old){
+            if(symbol == null) continue;
+            int hash = symbol.hashCode();
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while(symbols[index] != null) index = (index + 1) & mask;
+            symbols[index] = symbol;
+        }
+    }
+
+    // Recognizes keywords in place, so only real identifiers get a lexeme.
+    private TokenType identifierType(){
+        switch (charAt(start)){
+            case 'a': return keyword(TokenType.AND);
+            case 'c': return keyword(TokenType.CLASS);
+            case 'e': return keyword(TokenType.ELSE);
+            case 'f':
+                if(current - start > 1){
+                    switch (charAt(start + 1)){
+                        case 'a': return keyword(TokenType.FALSE);
+                        case 'o': return keyword(TokenType.FOR);
+                        case 'u': return keyword(TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if(current - start > 1){
+                    switch (charAt(start + 1)){
+                        case 'f': return keyword(TokenType.IF);
+                        case 'm': return keyword(TokenType.IMPORT);
+                    }
+                }
+                break;
+            case 'n': return keyword(TokenType.NIL);
+            case 'o': return keyword(TokenType.OR);
+            case 'p': return keyword(TokenType.PRINT);
+            case 'r': return keyword(TokenType.RETURN);
+            case 's': return keyword(TokenType.SUPER);
+            case 't':
+                if(current - start > 1){
+                    switch (charAt(start + 1)){
+                        case 'h': return keyword(TokenType.THIS);
+                        case 'r': return keyword(TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword(TokenType.VAR);
+            case 'w': return keyword(TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType keyword(TokenType type){
+        String text = lexemes[type.ordinal()];
+        if(current - start != text.length()) return TokenType.IDENTIFIER;
+        for(int i = 0; i < text.length(); i++){
+            if(charAt(start + i) != text.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 
     private boolean isAlphaNumeric(char c) {
@@ -131,8 +302,8 @@ public class MyScanner {
         while (isDigit(peek()) || (peek() == '.' && isDigit(peekNext()))){
             advance();
         }
-        double value = Double.parseDouble(source.substring(start, current));
-        addToken(TokenType.NUMBER, value);
+        String text = text(start, current);
+        addToken(TokenType.NUMBER, text, Double.parseDouble(text));
     }
 
     private boolean isDigit(char c){
@@ -146,28 +317,28 @@ public class MyScanner {
         }
 
         if(isAtEnd()){
-            Main.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        String text = text(start, current);
+        addToken(TokenType.STRING, text, text.substring(1, text.length() - 1));
 
     }
 
     private char peek() {
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
     private char peekNext(){
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current+1);
+        if(current + 1 >= length) return '\0';
+        return charAt(current+1);
     }
 
     private boolean match(char expected) {
         if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if(charAt(current) != expected) return false;
 
         current++;
         return true;
@@ -175,15 +346,14 @@ public class MyScanner {
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        addToken(type, lexemes[type.ordinal()], null);
     }
-    private void addToken(TokenType type, Object literal){
-        String text = source.substring(start, current);
+    private void addToken(TokenType type, String text, Object literal){
         tokens.add(new Token(type, text, literal, line));
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return charAt(current++);
     }
 
 
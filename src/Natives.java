@@ -0,0 +1,296 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// The global functions every program starts out with, in both engines.
+// Natives use the interpreter they're called with to own the arrays and maps
+// they create and to check a parallel worker's writes, and spawn and the
+// parallel ones start tasks or workers from it. The VM passes null, so the
+// Compiler rejects programs reading those three names unless they rebind them,
+// and the natives themselves fail if the VM calls them anyway.
+final class Natives {
+    static final Map<String, LoxCallable> ALL = new LinkedHashMap<>();
+    static final Set<String> INTERPRETER_ONLY = Set.of("spawn", "parallelMap", "parallelReduce");
+
+    static {
+        ALL.put("clock", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+        });
+        // array(size, value) is an array of size elements, all set to value.
+        ALL.put("array", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object size, Object value) {
+                double length = number(size);
+                if(length < 0 || length != (int) length) throw new RuntimeError("Array size must be a non-negative integer.");
+                return LoxArray.filled((int) length, value, interpreter);
+            }
+        });
+        // The number of elements of an array or entries of a map.
+        ALL.put("len", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if(value instanceof LoxMap map) return (double) map.size();
+                return (double) array(value).size();
+            }
+        });
+        ALL.put("push", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object array, Object value) {
+                writable(interpreter, array(array)).push(value);
+                return null;
+            }
+        });
+        ALL.put("pop", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object array) {
+                return writable(interpreter, array(array)).pop();
+            }
+        });
+        ALL.put("fill", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object array, Object value) {
+                writable(interpreter, array(array)).fill(value);
+                return null;
+            }
+        });
+        ALL.put("sort", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object array) {
+                writable(interpreter, array(array)).sort();
+                return null;
+            }
+        });
+        // copy(source, sourceIndex, target, targetIndex, count)
+        ALL.put("copy", new Native(5) {
+            @Override
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                LoxArray.copy(array(arguments[0]), number(arguments[1]),
+                        writable(interpreter, array(arguments[2])), number(arguments[3]), number(arguments[4]));
+                return null;
+            }
+        });
+        // slice(array, start, end) copies the elements from start up to end.
+        ALL.put("slice", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object array, Object start, Object end) {
+                return array(array).slice(number(start), number(end), interpreter);
+            }
+        });
+    }
+
+    static {
+        ALL.put("map", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new LoxMap(0, interpreter);
+            }
+        });
+        // reserve(map, count) makes room for count entries up front.
+        ALL.put("reserve", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object count) {
+                writable(interpreter, map(map)).reserve(count(count));
+                return null;
+            }
+        });
+        // get(map, key) is nil for a missing key, has tells the two apart.
+        ALL.put("get", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return map(map).get(key);
+            }
+        });
+        ALL.put("has", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return map(map).has(key);
+            }
+        });
+        ALL.put("put", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object map, Object key, Object value) {
+                writable(interpreter, map(map)).put(key, value);
+                return null;
+            }
+        });
+        // remove(map, key) returns the value it removed, if any.
+        ALL.put("remove", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return writable(interpreter, map(map)).remove(key);
+            }
+        });
+        // keys and values list the entries in the same order.
+        ALL.put("keys", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object map) {
+                return map(map).keys(interpreter);
+            }
+        });
+        ALL.put("values", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object map) {
+                return map(map).values(interpreter);
+            }
+        });
+    }
+
+    static {
+        // spawn(function) calls a function without parameters on a task of its own.
+        ALL.put("spawn", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object function) {
+                if(interpreter == null) throw new RuntimeError("Can't spawn tasks in the VM.");
+                if(!(function instanceof LoxCallable callable) || callable.arity() != 0){
+                    throw new RuntimeError("Can only spawn functions without parameters.");
+                }
+                interpreter.spawn(callable);
+                return null;
+            }
+        });
+        ALL.put("channel", new Native(0) {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new LoxChannel(Integer.MAX_VALUE);
+            }
+        });
+        // A channel holding at most capacity values; sending to a full one waits.
+        ALL.put("boundedChannel", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object capacity) {
+                int size = count(capacity);
+                if(size == 0) throw new RuntimeError("Channel capacity must be positive.");
+                return new LoxChannel(size);
+            }
+        });
+        ALL.put("send", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object channel, Object value) {
+                channel(channel).send(value);
+                return null;
+            }
+        });
+        ALL.put("receive", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                return channel(channel).receive();
+            }
+        });
+        ALL.put("close", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                channel(channel).close();
+                return null;
+            }
+        });
+        // select(channels) receives from the first of an array of channels to
+        // have a value and returns [its index, the value].
+        ALL.put("select", new Native(1) {
+            @Override
+            public Object call1(Interpreter interpreter, Object channels) {
+                LoxArray array = array(channels);
+                if(array.size() == 0) throw new RuntimeError("Can't select from no channels.");
+                LoxChannel[] selected = new LoxChannel[array.size()];
+                for(int i = 0; i < selected.length; i++){
+                    selected[i] = channel(array.get(i));
+                }
+                return LoxChannel.select(selected, interpreter);
+            }
+        });
+        // parallelMap(array, function) and parallelReduce(array, function,
+        // identity) spread the calls over every core, see Parallel.
+        ALL.put("parallelMap", new Native(2) {
+            @Override
+            public Object call2(Interpreter interpreter, Object array, Object function) {
+                if(interpreter == null) throw new RuntimeError("Can't run parallel workers in the VM.");
+                return Parallel.map(interpreter, array(array), function(function, 1));
+            }
+        });
+        ALL.put("parallelReduce", new Native(3) {
+            @Override
+            public Object call3(Interpreter interpreter, Object array, Object function, Object identity) {
+                if(interpreter == null) throw new RuntimeError("Can't run parallel workers in the VM.");
+                return Parallel.reduce(interpreter, array(array), function(function, 2), identity);
+            }
+        });
+    }
+
+    private Natives() {
+    }
+
+    private static LoxArray array(Object value){
+        if(value instanceof LoxArray array) return array;
+        throw new RuntimeError("Expected an array.");
+    }
+
+    // Parallel workers may only modify arrays and maps they created themselves.
+    private static LoxArray writable(Interpreter interpreter, LoxArray array){
+        if(interpreter != null) interpreter.checkWritable(array.owner);
+        return array;
+    }
+
+    private static LoxMap writable(Interpreter interpreter, LoxMap map){
+        if(interpreter != null) interpreter.checkWritable(map.owner);
+        return map;
+    }
+
+    private static LoxCallable function(Object value, int arity){
+        if(value instanceof LoxCallable function && function.arity() == arity) return function;
+        throw new RuntimeError("Expected a function of " + arity + (arity == 1 ? " parameter." : " parameters."));
+    }
+
+    private static LoxChannel channel(Object value){
+        if(value instanceof LoxChannel channel) return channel;
+        throw new RuntimeError("Expected a channel.");
+    }
+
+    private static LoxMap map(Object value){
+        if(value instanceof LoxMap map) return map;
+        throw new RuntimeError("Expected a map.");
+    }
+
+    private static int count(Object value){
+        double count = number(value);
+        if(count < 0 || count != (int) count) throw new RuntimeError("Expected a non-negative integer.");
+        return (int) count;
+    }
+
+    private static double number(Object value){
+        if(value instanceof Double number) return number;
+        throw new RuntimeError("Expected a number.");
+    }
+
+    // Implementations override the entry point for their arity, which call
+    // forwards to; callers have already checked the argument count.
+    private abstract static class Native implements LoxCallable {
+        private final int arity;
+
+        Native(int arity) {
+            this.arity = arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            switch (arguments.length){
+                case 0: return call0(interpreter);
+                case 1: return call1(interpreter, arguments[0]);
+                case 2: return call2(interpreter, arguments[0], arguments[1]);
+                case 3: return call3(interpreter, arguments[0], arguments[1], arguments[2]);
+                default: return call4(interpreter, arguments[0], arguments[1], arguments[2], arguments[3]);
+            }
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+}
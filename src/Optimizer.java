@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Simplifies a resolved tree before it runs: folds operators whose operands are
+// literals, substitutes locals that are initialized with a literal and never
+// assigned, drops groupings, branches that can't be taken, statements that do
+// nothing and code after a return. Only side-effect free code is removed and
+// anything that would fail at runtime is left to fail there. Nodes that change
+// are rebuilt with the Resolver's annotations copied over, so both engines run
+// the result like any other resolved tree.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Local declarations by slot, one map per scope the Resolver opened.
+    private final List<Map<Integer, Stmt.Var>> scopes = new ArrayList<>();
+    // Names of the local declarations some assignment writes to.
+    private final Set<Token> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean propagate = false;
+
+    // The first pass folds and finds the assigned locals, the second one
+    // substitutes the remaining literal locals and folds what that exposes.
+    List<Stmt> optimize(List<Stmt> statements){
+        List<Stmt> folded = optimizeAll(statements);
+        propagate = true;
+        return optimizeAll(folded);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements){
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for(Stmt statement : statements){
+            Stmt result = optimize(statement);
+            if(result == null) continue;
+            optimized.add(result);
+            // Nothing after it can run.
+            if(alwaysReturns(result)) break;
+        }
+        return optimized;
+    }
+
+    // The optimized expressions, or null when none of them changed.
+    private List<Expr> optimizeExpressions(List<Expr> expressions){
+        List<Expr> optimized = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for(Expr expression : expressions){
+            Expr result = optimize(expression);
+            changed |= result != expression;
+            optimized.add(result);
+        }
+        return changed ? optimized : null;
+    }
+
+    // Null when the statement can be left out entirely.
+    private Stmt optimize(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    // Where a statement is required, a removed one becomes an empty block.
+    private Stmt required(Stmt stmt){
+        Stmt result = optimize(stmt);
+        return result != null ? result : new Stmt.Block(new ArrayList<>());
+    }
+
+    private Expr optimize(Expr expr){
+        return expr.accept(this);
+    }
+
+    private static boolean alwaysReturns(Stmt stmt){
+        if(stmt instanceof Stmt.Return) return true;
+        if(stmt instanceof Stmt.Block block){
+            return !block.statements.isEmpty() && alwaysReturns(block.statements.get(block.statements.size() - 1));
+        }
+        if(stmt instanceof Stmt.If branch){
+            return branch.elseBranch != null && alwaysReturns(branch.thenBranch) && alwaysReturns(branch.elseBranch);
+        }
+        return false;
+    }
+
+    private static boolean isLiteral(Expr expr){
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object value(Expr expr){
+        return ((Expr.Literal) expr).value;
+    }
+
+    private void beginScope(){
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope(){
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private Stmt.Var declaration(int depth, int slot){
+        return scopes.get(scopes.size() - 1 - depth).get(slot);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(isLiteral(left) && isLiteral(right)){
+            Object folded = fold(expr.operator.type, value(left), value(right));
+            if(folded != null) return new Expr.Literal(folded);
+        }
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    // The operator's result, or null when it would be a runtime error.
+    private static Object fold(TokenType operator, Object left, Object right){
+        switch (operator){
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+            case PLUS:
+                if(left instanceof String && right instanceof String) return (String)left + (String)right;
+                break;
+        }
+        if(!(left instanceof Double && right instanceof Double)) return null;
+        double a = (double)left;
+        double b = (double)right;
+        switch (operator){
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+        }
+        return null;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if(isLiteral(right)){
+            Object value = value(right);
+            if(expr.operator.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(value));
+            if(value instanceof Double) return new Expr.Literal(-(double)value);
+        }
+        if(right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if(!propagate || expr.depth < 0) return expr;
+        Stmt.Var declaration = declaration(expr.depth, expr.slot);
+        if(declaration == null || assigned.contains(declaration.name)) return expr;
+        if(declaration.initializer == null) return new Expr.Literal(null);
+        if(isLiteral(declaration.initializer)) return new Expr.Literal(value(declaration.initializer));
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        if(expr.depth >= 0){
+            Stmt.Var declaration = declaration(expr.depth, expr.slot);
+            if(declaration != null) assigned.add(declaration.name);
+        }
+        Expr value = optimize(expr.value);
+        if(value == expr.value) return expr;
+        Expr.Assign optimized = new Expr.Assign(expr.name, value);
+        optimized.depth = expr.depth;
+        optimized.slot = expr.slot;
+        return optimized;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(isLiteral(left)){
+            // "and" and "or" yield one of their operands, the left one decides which.
+            boolean truthy = Interpreter.isTruthy(value(left));
+            if(expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeExpressions(expr.arguments);
+        if(callee == expr.callee && arguments == null) return expr;
+        return new Expr.Call(callee, expr.paren, arguments != null ? arguments : expr.arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if(object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if(object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        List<Expr> elements = optimizeExpressions(expr.elements);
+        if(elements == null) return expr;
+        return new Expr.Array(expr.bracket, elements);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if(object == expr.object && index == expr.index) return expr;
+        return new Expr.Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if(object == expr.object && index == expr.index && value == expr.value) return expr;
+        return new Expr.SetIndex(object, expr.bracket, index, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(isLiteral(expression)) return null;
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        Stmt.Var optimized = stmt;
+        if(initializer != stmt.initializer){
+            optimized = new Stmt.Var(stmt.name, initializer);
+            optimized.slot = stmt.slot;
+        }
+        if(stmt.slot >= 0) scopes.get(scopes.size() - 1).put(stmt.slot, optimized);
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.slotCount > 0) beginScope();
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if(stmt.slotCount > 0) endScope();
+        if(statements.isEmpty()) return null;
+        Stmt.Block optimized = new Stmt.Block(statements);
+        optimized.slotCount = stmt.slotCount;
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(isLiteral(condition)){
+            if(Interpreter.isTruthy(value(condition))) return optimize(stmt.thenBranch);
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if(thenBranch == null && elseBranch == null) return new Stmt.Expression(condition);
+        if(thenBranch == null) thenBranch = new Stmt.Block(new ArrayList<>());
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(isLiteral(condition) && !Interpreter.isTruthy(value(condition))) return null;
+        return new Stmt.While(condition, required(stmt.body));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        if(stmt.slotCount > 0) beginScope();
+        Stmt initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        Expr condition = stmt.condition == null ? null : optimize(stmt.condition);
+        boolean runs = condition == null || !isLiteral(condition) || Interpreter.isTruthy(value(condition));
+        // When only the initializer runs it stays in the loop, whose scope it was resolved in.
+        Stmt body = runs ? required(stmt.body) : new Stmt.Block(new ArrayList<>());
+        Expr increment = runs && stmt.increment != null ? optimize(stmt.increment) : null;
+        if(stmt.slotCount > 0) endScope();
+        if(!runs && initializer == null) return null;
+        Stmt.For optimized = new Stmt.For(initializer, condition, increment, body);
+        optimized.slotCount = stmt.slotCount;
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return function(stmt);
+    }
+
+    private Stmt.Function function(Stmt.Function stmt){
+        // Parameters, and "this" ahead of them in methods, aren't Var declarations.
+        beginScope();
+        List<Stmt> body = optimizeAll(stmt.body);
+        endScope();
+        Stmt.Function optimized = new Stmt.Function(stmt.name, stmt.params, body);
+        optimized.slot = stmt.slot;
+        optimized.slotCount = stmt.slotCount;
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if(value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        // Methods close over the scope holding "super".
+        if(stmt.superclass != null) beginScope();
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for(Stmt.Function method : stmt.methods){
+            methods.add(function(method));
+        }
+        if(stmt.superclass != null) endScope();
+        Stmt.Class optimized = new Stmt.Class(stmt.name, methods, stmt.superclass);
+        optimized.slot = stmt.slot;
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+}
@@ -0,0 +1,8 @@
+// Where print statements write. Implementations may hold on to what was
+// printed; the engines flush when a script finishes and before reporting a
+// runtime error, so the output still comes ahead of the error.
+interface Output {
+    // Prints the value as Interpreter.stringify formats it, then a line separator.
+    void println(Object value);
+    void flush();
+}
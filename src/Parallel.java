@@ -0,0 +1,115 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// parallelMap and parallelReduce. The array is split in halves on the common
+// ForkJoinPool until the pieces are small enough to share out evenly, and each
+// piece runs with a worker Interpreter of its own. Workers read captured
+// variables like any function, but assigning one is a runtime error, and so
+// is modifying an array or map the worker didn't create. The result therefore
+// can't depend on how the pieces were scheduled, and nothing is written while
+// other workers read it. Instances reached through captured variables are
+// shared as they are; their fields are locked, see InlineCache.
+final class Parallel {
+    // Pieces per pool thread, so threads that finish early find more to steal.
+    private static final int PIECES_PER_THREAD = 8;
+
+    private Parallel() {
+    }
+
+    // The array of function(element) for every element, in order.
+    static LoxArray map(Interpreter interpreter, LoxArray array, LoxCallable function){
+        Object[] results = new Object[array.size()];
+        ForkJoinPool.commonPool().invoke(new MapTask(interpreter, array, function, results,
+                0, results.length, grain(results.length)));
+        LoxArray mapped = new LoxArray(results.length, interpreter);
+        for(Object result : results){
+            mapped.push(result);
+        }
+        return mapped;
+    }
+
+    // Folds the elements with function, which must be associative with identity
+    // as its identity element: pieces are folded from identity, then combined.
+    static Object reduce(Interpreter interpreter, LoxArray array, LoxCallable function, Object identity){
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(interpreter, array, function, identity,
+                0, array.size(), grain(array.size())));
+    }
+
+    private static int grain(int size){
+        return Math.max(1, size / (ForkJoinPool.getCommonPoolParallelism() * PIECES_PER_THREAD));
+    }
+
+    private static final class MapTask extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final LoxArray array;
+        private final LoxCallable function;
+        private final Object[] results;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        MapTask(Interpreter interpreter, LoxArray array, LoxCallable function, Object[] results,
+                int start, int end, int grain) {
+            this.interpreter = interpreter;
+            this.array = array;
+            this.function = function;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= grain){
+                Interpreter worker = interpreter.worker();
+                for(int i = start; i < end; i++){
+                    results[i] = function.call1(worker, array.get(i));
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new MapTask(interpreter, array, function, results, start, middle, grain),
+                    new MapTask(interpreter, array, function, results, middle, end, grain));
+        }
+    }
+
+    private static final class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final LoxArray array;
+        private final LoxCallable function;
+        private final Object identity;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        ReduceTask(Interpreter interpreter, LoxArray array, LoxCallable function, Object identity,
+                   int start, int end, int grain) {
+            this.interpreter = interpreter;
+            this.array = array;
+            this.function = function;
+            this.identity = identity;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            Interpreter worker = interpreter.worker();
+            if(end - start <= grain){
+                Object result = identity;
+                for(int i = start; i < end; i++){
+                    result = function.call2(worker, result, array.get(i));
+                }
+                return result;
+            }
+            int middle = (start + end) >>> 1;
+            ReduceTask right = new ReduceTask(interpreter, array, function, identity, middle, end, grain);
+            right.fork();
+            Object left = new ReduceTask(interpreter, array, function, identity, start, middle, grain).compute();
+            return function.call2(worker, left, right.join());
+        }
+    }
+}
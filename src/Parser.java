@@ -1,16 +1,17 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
-import java.util.Arrays;
 
 
 public class Parser {
     public class ParseError extends RuntimeException{}
     private final List<Token> tokens;
     private int current = 0;
+    private final ErrorReporter errors;
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, ErrorReporter errors) {
         this.tokens = tokens;
+        this.errors = errors;
     }
     List<Stmt> parse(){
         List<Stmt> statements = new ArrayList<>();
@@ -25,6 +26,7 @@ public class Parser {
             if(match(TokenType.CLASS)) return classDeclaration();
             if(match(TokenType.VAR)) return varDeclaration();
             if(match(TokenType.FUN)) return function("function");
+            if(match(TokenType.IMPORT)) return importDeclaration();
             return statement();
         }catch (ParseError error){
             synchronize();
@@ -51,6 +53,13 @@ public class Parser {
         return new Stmt.Class(name, methods, superclass);
     }
 
+    private Stmt importDeclaration(){
+        Token keyword = previous();
+        Token path = consume(TokenType.STRING, "Expect module path after 'import'.");
+        consume(TokenType.SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt varDeclaration() {
          Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
 
@@ -123,19 +132,7 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after 'for' clauses.");
         Stmt body = statement();
 
-        if(increment != null){
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
-        if(condition == null){
-            condition = new Expr.Literal(true);
-        }
-        body = new Stmt.While(condition, body);
-        if(initializer != null){
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-        return body;
-
-
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt whileStatement() {
@@ -197,16 +194,31 @@ public class Parser {
             }else if (expr instanceof Expr.Get){
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
+            }else if (expr instanceof Expr.Index){
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
             }
             error(equals, "Invalid assignment target");
         }
         return expr;
     }
     private Expr or(){
-        return parseBinaryOp(this::and, TokenType.OR);
+        Expr expr = and();
+        while(match(TokenType.OR)){
+            Token operator = previous();
+            Expr right = and();
+            expr = new Expr.Logical(expr, operator, right);
+        }
+        return expr;
     }
     private Expr and(){
-        return parseBinaryOp(this::equality, TokenType.AND);
+        Expr expr = equality();
+        while(match(TokenType.AND)){
+            Token operator = previous();
+            Expr right = equality();
+            expr = new Expr.Logical(expr, operator, right);
+        }
+        return expr;
     }
 
     private Expr parseBinaryOp (Supplier<Expr> supplier, TokenType... types) {
@@ -252,6 +264,10 @@ public class Parser {
             } else if (match(TokenType.DOT)) {
                 Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(TokenType.LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -296,6 +312,17 @@ public class Parser {
             return new Expr.Super(keyword, method);
         }
         if(match(TokenType.THIS)) return new Expr.This(previous());
+        if(match(TokenType.LEFT_BRACKET)){
+            List<Expr> elements = new ArrayList<>();
+            if(!check(TokenType.RIGHT_BRACKET)){
+                do {
+                    if(elements.size() >= 65535) error(peek(), "Can't have more than 65535 elements.");
+                    elements.add(expression());
+                } while (match(TokenType.COMMA));
+            }
+            Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after array elements.");
+            return new Expr.Array(bracket, elements);
+        }
         throw error(peek(), "Expect expression");
     }
 
@@ -304,7 +331,7 @@ public class Parser {
         throw error(peek(), message);
     }
     private ParseError error(Token token, String message){
-        Main.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
     private void synchronize(){
@@ -321,6 +348,7 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case IMPORT:
                     return;
             }
             advance();
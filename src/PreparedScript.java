@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// A script LoxEngine compiled, with the modules it imports: the front end has
+// run once, and every run starts from fresh globals. The resolved tree can't
+// be shared between runs as it is: nodes specialize themselves, property sites
+// cache the shapes of one run's classes and compiled code is bound to one
+// run's globals. So a script keeps its trees the way AstWriter serializes
+// them, and each run rebuilds its own with AstReader, which is cheap next to
+// the front end. A prepared script is immutable and any number of threads may
+// run it at once; everything a run changes belongs to that run.
+final class PreparedScript {
+    // The bytes are only ever read by this class, so they need no real hash.
+    private static final byte[] NO_HASH = new byte[0];
+
+    // One serialized tree and the modules its imports refer to, in order.
+    private static final class Unit {
+        final byte[] tree;
+        final List<Path> imports;
+
+        Unit(byte[] tree, List<Path> imports) {
+            this.tree = tree;
+            this.imports = imports;
+        }
+    }
+
+    private final Unit script;
+    private final Map<Path, Unit> modules;
+    private final boolean jitEnabled;
+
+    // The statements and their modules must have compiled without errors.
+    PreparedScript(List<Stmt> statements, boolean jitEnabled) {
+        Map<Path, Unit> modules = new HashMap<>();
+        this.script = serialize(statements, modules);
+        this.modules = Map.copyOf(modules);
+        this.jitEnabled = jitEnabled;
+    }
+
+    private static Unit serialize(List<Stmt> statements, Map<Path, Unit> modules){
+        List<Path> imports = new ArrayList<>();
+        List<Module> pending = new ArrayList<>();
+        for(Stmt statement : statements){
+            if(!(statement instanceof Stmt.Import stmt)) continue;
+            imports.add(stmt.module.path);
+            // Claimed before recursing, since modules may import each other.
+            if(!modules.containsKey(stmt.module.path)){
+                modules.put(stmt.module.path, null);
+                pending.add(stmt.module);
+            }
+        }
+        for(Module module : pending){
+            modules.put(module.path, serialize(module.statements, modules));
+        }
+        return new Unit(AstWriter.write(NO_HASH, statements), List.copyOf(imports));
+    }
+
+    boolean run(Output output, Consumer<String> errors){
+        return run(Map.of(), output, errors);
+    }
+
+    // Runs the script once and waits for it, with bindings defined as
+    // globals next to the natives. Printed values go to output and a runtime
+    // error to errors, formatted like the command line reports it. Returns
+    // false if a runtime error ended the run.
+    boolean run(Map<String, ?> bindings, Output output, Consumer<String> errors){
+        ErrorReporter reporter = new ErrorReporter(errors);
+        Interpreter interpreter = new Interpreter(output, reporter);
+        interpreter.jitEnabled = jitEnabled;
+        for(Map.Entry<String, ?> binding : bindings.entrySet()){
+            interpreter.globals.define(Symbol.of(binding.getKey()), value(binding.getValue()));
+        }
+        interpreter.interpret(instantiate(script, new HashMap<>()));
+        return !reporter.hadRuntimeError();
+    }
+
+    // Java numbers become Lox numbers; anything else has to be a Lox value already.
+    private static Object value(Object value){
+        if(value instanceof Number number && !(value instanceof Double)) return number.doubleValue();
+        if(value == null || value instanceof Double || value instanceof Boolean || LoxString.isString(value)
+                || value instanceof LoxArray || value instanceof LoxMap || value instanceof LoxChannel
+                || value instanceof LoxInstance || value instanceof LoxCallable){
+            return value;
+        }
+        throw new IllegalArgumentException("Not a Lox value: " + value.getClass().getName());
+    }
+
+    // A tree of the run's own, with its imports linked to the run's modules.
+    private List<Stmt> instantiate(Unit unit, Map<Path, Module> loaded){
+        List<Stmt> statements = AstReader.read(ByteBuffer.wrap(unit.tree), NO_HASH);
+        Iterator<Path> imports = unit.imports.iterator();
+        for(Stmt statement : statements){
+            if(!(statement instanceof Stmt.Import stmt)) continue;
+            Path path = imports.next();
+            Module module = loaded.get(path);
+            if(module == null){
+                module = new Module(path);
+                loaded.put(path, module);
+                module.statements = instantiate(modules.get(path), loaded);
+            }
+            stmt.module = module;
+        }
+        return statements;
+    }
+}
@@ -3,13 +3,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    private final ErrorReporter errors;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // A local declaration: its index in the runtime Environment's slot array
+    // and whether its initializer has finished.
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    Resolver(ErrorReporter errors) {
+        this.errors = errors;
     }
 
     @Override
@@ -38,26 +49,36 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
-            Main.error(expr.name, "Can't read local variable in its own initializer.");
+        if(!scopes.isEmpty()){
+            Local local = scopes.peek().get(expr.name.lexeme);
+            if(local != null && !local.defined){
+                errors.error(expr.name, "Can't read local variable in its own initializer.");
+            }
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveDepth(expr.name.lexeme);
+        if(expr.depth >= 0) expr.slot = slotAt(expr.depth, expr.name);
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name){
+    // Number of scopes between the reference and its declaration, or -1 for globals.
+    private int resolveDepth(String name){
         for(int i = scopes.size()-1; i >=0; i--){
-            if(scopes.get(i).containsKey(name.lexeme)){
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if(scopes.get(i).containsKey(name)){
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
+    }
+
+    private int slotAt(int depth, Token name){
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme).slot;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveDepth(expr.name.lexeme);
+        if(expr.depth >= 0) expr.slot = slotAt(expr.depth, expr.name);
         return null;
     }
 
@@ -91,24 +112,49 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for(Expr element : expr.elements){
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if(currentClass == ClassType.NONE){
-            Main.error(expr.keyword, "Can't use 'this' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'this' outside of a class.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveDepth(expr.keyword.lexeme);
+        if(expr.depth >= 0) expr.slot = slotAt(expr.depth, expr.keyword);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if(currentClass == ClassType.NONE){
-            Main.error(expr.keyword, "Can't use 'super' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Main.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            errors.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveDepth(expr.keyword.lexeme);
+        expr.thisDepth = resolveDepth("this");
         return null;
     }
 
@@ -126,35 +172,53 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if(stmt.initializer != null){
             resolve(stmt.initializer);
         }
         define(stmt.name);
         return null;
     }
-    private void declare(Token name){
-        if(scopes.isEmpty()) return;
+    // Returns the slot assigned to the declaration, or -1 for globals.
+    private int declare(Token name){
+        if(scopes.isEmpty()) return -1;
 
-        Map<String, Boolean> scope = scopes.peek();
+        Map<String, Local> scope = scopes.peek();
         if(scope.containsKey(name.lexeme)){
-            Main.error(name, "Already a variable with this name in this scope.");
+            errors.error(name, "Already a variable with this name in this scope.");
+            return scope.get(name.lexeme).slot;
         }
-        scope.put(name.lexeme, false);
+        Local local = new Local(scope.size());
+        scope.put(name.lexeme, local);
+        return local.slot;
      }
      private void define(Token name){
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
      }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // Without declarations the block gets no scope, so no Environment at runtime.
+        if(!declaresLocals(stmt.statements)){
+            resolve(stmt.statements);
+            stmt.slotCount = 0;
+            return null;
+        }
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.slotCount = endScope();
         return null;
     }
 
+    private static boolean declaresLocals(List<Stmt> statements){
+        for(Stmt statement : statements){
+            if(statement instanceof Stmt.Var || statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Class) return true;
+        }
+        return false;
+    }
+
     public void resolve(List<Stmt> statements){
         for(Stmt statement : statements){
             resolve(statement);
@@ -168,11 +232,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<String, Local>());
+    }
+
+    // Returns the number of slots the scope's Environment needs.
+    private int endScope(){
+        return scopes.pop().size();
     }
 
-    private void endScope(){
-        scopes.pop();
+    private void declareKeyword(String name){
+        Local local = new Local(scopes.peek().size());
+        local.defined = true;
+        scopes.peek().put(name, local);
     }
 
     @Override
@@ -190,9 +261,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // Only a loop variable needs a scope of its own.
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if(scoped) beginScope();
+        if(stmt.initializer != null) resolve(stmt.initializer);
+        if(stmt.condition != null) resolve(stmt.condition);
+        resolve(stmt.body);
+        if(stmt.increment != null) resolve(stmt.increment);
+        stmt.slotCount = scoped ? endScope() : 0;
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -203,23 +287,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
         beginScope();
+        // Methods receive "this" in slot 0 of their own frame, ahead of the parameters.
+        if(type == FunctionType.METHOD || type == FunctionType.INITIALIZER){
+            declareKeyword("this");
+        }
         for(Token param : function.params){
             declare(param);
             define(param);
         }
         resolve(function.body);
-        endScope();
+        function.slotCount = endScope();
         currentFunction = enclosingFunction;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if(currentFunction == FunctionType.NONE){
-            Main.error(stmt.keyword, "Can't return from top-level code.");
+            errors.error(stmt.keyword, "Can't return from top-level code.");
         }
         if(stmt.value != null){
             if(currentFunction == FunctionType.INITIALIZER){
-                Main.error(stmt.keyword, "Can't return a value from an initializer.");
+                errors.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
         }
@@ -230,11 +318,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         if(stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
-            Main.error(stmt.superclass.name, "A class can't inherit from itself");
+            errors.error(stmt.superclass.name, "A class can't inherit from itself");
         }
 
         if(stmt.superclass != null){
@@ -244,11 +332,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
         if(stmt.superclass !=null){
             beginScope();
-            scopes.peek().put("super", true);
+            declareKeyword("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
         for(Stmt.Function method : stmt.methods){
             FunctionType declaration = FunctionType.METHOD;
             if(method.name.lexeme.equals("init")){
@@ -256,10 +342,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             }
             resolveFunction(method, declaration);
         }
-        endScope();
         if(stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
         return null;
     }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // Modules are linked into the global scope, so they are imported there.
+        if(!scopes.isEmpty()){
+            errors.error(stmt.keyword, "Can only import at the top level.");
+        }
+        return null;
+    }
 }
@@ -1,8 +1,48 @@
+// A Lox runtime error. Java stack traces say nothing about the Lox program, so
+// none is captured; instead the Lox call stack is recorded, innermost frame
+// first, as the error unwinds through the calls that led to it.
 public class RuntimeError extends RuntimeException{
     final Token token;
+    // Runaway recursion would otherwise print a frame per level.
+    private static final int MAX_TRACE = 64;
+    private final StringBuilder trace = new StringBuilder();
+    private int frames;
+    // Line the frame being unwound was executing.
+    private int line;
 
     public RuntimeError(String message, Token token) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
+        this.line = token.line;
+    }
+
+    // For natives and arrays, which don't know where they were used; whoever
+    // catches the error first sets the line with calledFrom.
+    public RuntimeError(String message) {
+        super(message, null, false, false);
+        this.token = null;
+    }
+
+    // The error leaves a frame of the named function.
+    RuntimeError leaving(String function){
+        if(frames++ < MAX_TRACE){
+            trace.append("[line ").append(line).append("] in ").append(function).append("()\n");
+        }
+        return this;
+    }
+
+    // The frame the error reaches next was executing a call on this line.
+    RuntimeError calledFrom(int line){
+        this.line = line;
+        return this;
+    }
+
+    // The frames left so far followed by the top-level script.
+    String trace(){
+        if(frames > MAX_TRACE){
+            trace.append("... ").append(frames - MAX_TRACE).append(" more frames\n");
+            frames = MAX_TRACE;
+        }
+        return trace + "[line " + line + "] in script";
     }
 }
@@ -0,0 +1,66 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The scripts LoxEngine.prepare compiled, by directory and the SHA-256 of the
+// source, so a snippet that comes back skips the front end. Holds at most
+// capacity scripts and drops the least recently used one to make room. A
+// cached script keeps the modules it imported when it was first compiled.
+final class ScriptCache {
+    private final int capacity;
+    // In access order, so the eldest entry is the least recently used.
+    private final LinkedHashMap<String, PreparedScript> scripts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedScript> eldest) {
+            if(size() <= capacity) return false;
+            evictions++;
+            return true;
+        }
+    };
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    ScriptCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Null if the script isn't cached.
+    synchronized PreparedScript get(String key){
+        PreparedScript script = scripts.get(key);
+        if(script == null){
+            misses++;
+        } else{
+            hits++;
+        }
+        return script;
+    }
+
+    // Returns the script that ends up cached, which is an earlier one if
+    // another thread compiled the same source in the meantime.
+    synchronized PreparedScript put(String key, PreparedScript script){
+        PreparedScript cached = scripts.putIfAbsent(key, script);
+        return cached == null ? script : cached;
+    }
+
+    synchronized int size(){
+        return scripts.size();
+    }
+
+    synchronized long hits(){
+        return hits;
+    }
+
+    synchronized long misses(){
+        return misses;
+    }
+
+    synchronized long evictions(){
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "script cache: " + scripts.size() + "/" + capacity + " scripts, " + hits + " hits, " +
+                misses + " misses, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class describing the field layout of a LoxInstance. Instances of a
+// class that had the same fields added in the same order share one Shape, so
+// two instances with the same Shape keep every field in the same slot. Every
+// class has a root shape of its own, so a shape also tells the class apart.
+final class Shape {
+    private final Map<Symbol, Integer> slots;
+    private final Map<Symbol, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        this(new HashMap<>());
+    }
+
+    private Shape(Map<Symbol, Integer> slots) {
+        this.slots = slots;
+    }
+
+    int size(){
+        return slots.size();
+    }
+
+    int slotOf(Symbol name){
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // The shape reached by adding a field; the new field takes the next slot.
+    synchronized Shape withField(Symbol name){
+        Shape next = transitions.get(name);
+        if(next == null){
+            Map<Symbol, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -8,9 +8,11 @@ abstract class Stmt {
        R visitBlockStmt(Block stmt);
        R visitIfStmt(If stmt);
        R visitWhileStmt(While stmt);
+       R visitForStmt(For stmt);
        R visitFunctionStmt(Function stmt);
        R visitReturnStmt(Return stmt);
        R visitClassStmt(Class stmt);
+       R visitImportStmt(Import stmt);
  }
   static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -46,6 +48,10 @@ abstract class Stmt {
     }
  final Token name;
  final Expr initializer;
+ // Filled in by the Resolver; slot -1 means the variable is global.
+ int slot = -1;
+ // Type feedback: stays true while the initializer has only produced numbers.
+ boolean numeric = true;
  }
     static class Block extends Stmt {
         Block(List<Stmt> statements) {
@@ -57,6 +63,9 @@ abstract class Stmt {
             return visitor.visitBlockStmt(this);
         }
         final List<Stmt> statements;
+        // Zero when the block declares nothing; it then runs in the enclosing
+        // Environment, and the Resolver opened no scope for it either.
+        int slotCount;
     }
     static class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -85,6 +94,30 @@ abstract class Stmt {
         }
         final Expr condition;
         final Stmt body;
+        // Back-edge counter and compiled code, see Jit.
+        final JitProfile profile = new JitProfile();
+    }
+    static class For extends Stmt {
+        For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+        // Each of the three clauses may be missing.
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+        // A loop variable gets one Environment for the whole loop, like the
+        // block "for" used to desugar into; zero slots means no Environment.
+        int slotCount;
+        final JitProfile profile = new JitProfile();
     }
     static class Function extends Stmt {
         Function(Token name, List<Token> params, List<Stmt> body) {
@@ -100,6 +133,11 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        int slot = -1;
+        // Size of the call frame: parameters first, then the body's locals.
+        int slotCount;
+        // Invocation counter and compiled code, shared by all closures; see Jit.
+        final JitProfile profile = new JitProfile();
     }
     static class Return extends Stmt {
         Return(Token keyword, Expr value) {
@@ -128,7 +166,22 @@ abstract class Stmt {
         final Token name;
         final List<Stmt.Function> methods;
         final Expr.Variable superclass;
+        int slot = -1;
     }
 
+    static class Import extends Stmt {
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+        @Override
+        <R> R accept (Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+        final Token keyword;
+        final Token path;
+        // Filled in by the ModuleLoader.
+        Module module;
+    }
    abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,34 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interned identifier. There is exactly one Symbol per name, so the runtime
+// tables (globals, shapes, methods) key on symbols, hash with the precomputed
+// hash and compare by identity instead of hashing and comparing Strings.
+// Like String.intern, the table lives as long as the process.
+final class Symbol {
+    private static final ConcurrentHashMap<String, Symbol> table = new ConcurrentHashMap<>();
+    static final Symbol INIT = of("init");
+
+    final String name;
+    private final int hash;
+
+    private Symbol(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    static Symbol of(String name){
+        Symbol symbol = table.get(name);
+        if(symbol != null) return symbol;
+        return table.computeIfAbsent(name, Symbol::new);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
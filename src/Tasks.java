@@ -0,0 +1,53 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The tasks spawned during one run, each on a virtual thread of its own. A run
+// isn't over before its tasks are: Interpreter.interpret waits for them, which
+// also means a task that blocks forever on a channel keeps the run waiting.
+final class Tasks {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition finished = lock.newCondition();
+    private int running = 0;
+
+    void start(Runnable task){
+        lock.lock();
+        try {
+            running++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    task.run();
+                } finally {
+                    end();
+                }
+            });
+        } catch (RuntimeException | Error e){
+            end();
+            throw e;
+        }
+    }
+
+    // Returns once every task has finished, tasks they spawned in turn included.
+    void await(){
+        lock.lock();
+        try {
+            while(running > 0){
+                finished.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void end(){
+        lock.lock();
+        try {
+            if(--running == 0) finished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
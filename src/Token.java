@@ -3,12 +3,24 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // Interned name of an identifier, null for every other token.
+    final Symbol symbol;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = type == TokenType.IDENTIFIER ? Symbol.of(lexeme) : null;
+    }
+
+    // An identifier the scanner already interned; its lexeme is the symbol's name.
+    Token(Symbol symbol, int line) {
+        this.type = TokenType.IDENTIFIER;
+        this.lexeme = symbol.name;
+        this.literal = null;
+        this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString(){
@@ -0,0 +1,73 @@
+// Self-specializing implementation of Expr.Unary, see BinaryNode.
+abstract class UnaryNode {
+    static final UnaryNode UNINITIALIZED = new Uninitialized();
+
+    private static final UnaryNode NEGATE = new Negate();
+    private static final UnaryNode BOOLEAN_NOT = new BooleanNot();
+    private static final UnaryNode GENERIC_NOT = new GenericNot();
+
+    Object execute(Interpreter interpreter, Expr.Unary expr){
+        return apply(expr, interpreter.evaluate(expr.right));
+    }
+
+    double executeDouble(Interpreter interpreter, Expr.Unary expr){
+        return BinaryNode.expectDouble(execute(interpreter, expr));
+    }
+
+    abstract Object apply(Expr.Unary expr, Object right);
+
+    static Object rewrite(Expr.Unary expr, UnaryNode node, Object right){
+        expr.node = node;
+        return node.apply(expr, right);
+    }
+
+    private static final class Uninitialized extends UnaryNode {
+        @Override
+        Object apply(Expr.Unary expr, Object right) {
+            switch (expr.operator.type){
+                case BANG:
+                    return rewrite(expr, right instanceof Boolean ? BOOLEAN_NOT : GENERIC_NOT, right);
+                case MINUS:
+                    return rewrite(expr, NEGATE, right);
+            }
+            throw new IllegalStateException("Unexpected unary operator " + expr.operator.type);
+        }
+    }
+
+    private static final class Negate extends UnaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Unary expr) {
+            return executeDouble(interpreter, expr);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Unary expr) {
+            try {
+                return -interpreter.evaluateDouble(expr.right);
+            } catch (UnexpectedResult result){
+                throw new RuntimeError("Operand must be a number.", expr.operator);
+            }
+        }
+
+        @Override
+        Object apply(Expr.Unary expr, Object right) {
+            if(right instanceof Double) return -(double)right;
+            throw new RuntimeError("Operand must be a number.", expr.operator);
+        }
+    }
+
+    private static final class BooleanNot extends UnaryNode {
+        @Override
+        Object apply(Expr.Unary expr, Object right) {
+            if(right instanceof Boolean) return !(boolean)right;
+            return rewrite(expr, GENERIC_NOT, right);
+        }
+    }
+
+    private static final class GenericNot extends UnaryNode {
+        @Override
+        Object apply(Expr.Unary expr, Object right) {
+            return !Interpreter.isTruthy(right);
+        }
+    }
+}
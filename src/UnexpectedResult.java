@@ -0,0 +1,11 @@
+// Thrown by the unboxed evaluation paths (Interpreter.evaluateDouble and the
+// executeDouble node methods) when a value turns out not to be a number.
+// Carries the already computed value so the caller can continue generically.
+public class UnexpectedResult extends RuntimeException{
+    final Object value;
+
+    UnexpectedResult(Object value){
+        super(null,null,false,false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,590 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Executes the bytecode produced by Compiler with a single dispatch loop.
+// Call frames and the operand stack are plain arrays that grow on demand, so
+// unlike the Interpreter, recursion depth is bounded by maxFrames rather than
+// the thread's stack; --vm is the mode for deeply recursive programs.
+public class VM {
+    static final int DEFAULT_MAX_FRAMES = 1_000_000;
+
+    private static class CallFrame {
+        VMClosure closure;
+        int ip;
+        // Stack index of slot 0: the callee itself, or the receiver for methods.
+        int base;
+    }
+
+    final Map<String, Object> globals = new HashMap<>();
+    Object[] stack = new Object[1024];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    // Calls nested deeper than this are a stack overflow rather than an OutOfMemoryError.
+    int maxFrames = DEFAULT_MAX_FRAMES;
+    private VMUpvalue openUpvalues;
+    private final Set<VMFunction> initializedModules = new HashSet<>();
+
+    // Where print statements go, and where the error that ends a run is reported.
+    private final Output output;
+    private final ErrorReporter errors;
+
+    VM(ErrorReporter errors) {
+        this(ChannelOutput.standardOutput(), errors);
+    }
+
+    VM(Output output, ErrorReporter errors) {
+        this.output = output;
+        this.errors = errors;
+        globals.putAll(Natives.ALL);
+    }
+
+    public void interpret(VMFunction script){
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+        if(frames.length > maxFrames) frames = new CallFrame[maxFrames];
+        try {
+            VMClosure closure = new VMClosure(script);
+            stack[sp++] = closure;
+            callClosure(closure, 0);
+            run();
+        } catch (RuntimeError error){
+            output.flush();
+            errors.runtimeError(error);
+        } finally {
+            output.flush();
+        }
+    }
+
+    // TAIL_CALL drops the returning frame and falls through into CALL.
+    @SuppressWarnings("fallthrough")
+    private Object run(){
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        // The stack array and pointer are cached in locals and written back
+        // whenever control leaves the loop body (calls, upvalues, errors).
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        for(;;){
+            switch (code[ip++]){
+                case OpCode.CONSTANT: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp++] = constants[index];
+                    break;
+                }
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                case OpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                case OpCode.POP: sp--; break;
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = globals.get(name);
+                    if(value == null && !globals.containsKey(name)){
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + name + "'.");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.put(name, stack[--sp]);
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if(!globals.containsKey(name)){
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, stack[sp - 1]);
+                    break;
+                }
+                case OpCode.GET_UPVALUE:
+                    stack[sp++] = frame.closure.upvalues[code[ip++] & 0xff].get();
+                    break;
+                case OpCode.SET_UPVALUE:
+                    frame.closure.upvalues[code[ip++] & 0xff].set(stack[sp - 1]);
+                    break;
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    if(!(stack[sp - 1] instanceof VMInstance)){
+                        throw error("Only instances have properties");
+                    }
+                    VMInstance instance = (VMInstance) stack[sp - 1];
+                    Object value = instance.fields.get(name);
+                    if(value != null || instance.fields.containsKey(name)){
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    stack[sp - 1] = bindMethod(instance, instance.klass, name);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if(!(stack[sp - 2] instanceof VMInstance)){
+                        frame.ip = ip;
+                        throw error("Only instances have fields.");
+                    }
+                    Object value = stack[--sp];
+                    ((VMInstance) stack[sp - 1]).fields.put(name, value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.ARRAY: {
+                    int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    LoxArray array = new LoxArray(count, null);
+                    for(int i = sp - count; i < sp; i++){
+                        array.push(stack[i]);
+                    }
+                    sp -= count;
+                    stack[sp++] = array;
+                    break;
+                }
+                case OpCode.GET_INDEX: {
+                    frame.ip = ip;
+                    Object index = stack[--sp];
+                    LoxArray array = indexed(stack[sp - 1], index);
+                    try {
+                        stack[sp - 1] = array.get((double) index);
+                    } catch (RuntimeError error){
+                        throw error(error.getMessage());
+                    }
+                    break;
+                }
+                case OpCode.SET_INDEX: {
+                    frame.ip = ip;
+                    Object value = stack[--sp];
+                    Object index = stack[--sp];
+                    LoxArray array = indexed(stack[sp - 1], index);
+                    try {
+                        array.set((double) index, value);
+                    } catch (RuntimeError error){
+                        throw error(error.getMessage());
+                    }
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    VMClass superclass = (VMClass) stack[--sp];
+                    stack[sp - 1] = bindMethod(stack[sp - 1], superclass, name);
+                    break;
+                }
+                case OpCode.EQUAL:
+                    stack[sp - 2] = Interpreter.isEqual(stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    break;
+                case OpCode.NOT_EQUAL:
+                    stack[sp - 2] = !Interpreter.isEqual(stack[sp - 2], stack[sp - 1]);
+                    sp--;
+                    break;
+                case OpCode.GREATER: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a > (double) b;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a >= (double) b;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a < (double) b;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a <= (double) b;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(a instanceof Double && b instanceof Double){
+                        stack[--sp - 1] = (double) a + (double) b;
+                    } else if(LoxString.isString(a) && LoxString.isString(b)){
+                        stack[--sp - 1] = LoxString.concat(a, b);
+                    } else{
+                        frame.ip = ip;
+                        throw error("Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a - (double) b;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a * (double) b;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    if(!(a instanceof Double && b instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operands must be numbers.");
+                    }
+                    stack[--sp - 1] = (double) a / (double) b;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    if(!(stack[sp - 1] instanceof Double)){
+                        frame.ip = ip;
+                        throw error("Operand must be a number.");
+                    }
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+                }
+                case OpCode.PRINT:
+                    output.println(stack[--sp]);
+                    break;
+                case OpCode.JUMP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if(!Interpreter.isTruthy(stack[sp - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_TRUE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if(Interpreter.isTruthy(stack[sp - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.POP_JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if(!Interpreter.isTruthy(stack[--sp])) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    ip -= offset;
+                    break;
+                }
+                case OpCode.TAIL_CALL: {
+                    // Calls to closures replace the returning frame, which keeps
+                    // chains of tail calls at constant depth. The callee and
+                    // arguments move down to its base and CALL takes over.
+                    int argCount = code[ip] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+                    VMClosure target = callee instanceof VMBoundMethod
+                            ? ((VMBoundMethod) callee).method
+                            : callee instanceof VMClosure ? (VMClosure) callee : null;
+                    // An arity error is reported from the caller's frame, so that one has to stay.
+                    if(target != null && target.function.arity == argCount){
+                        closeUpvalues(base);
+                        System.arraycopy(stack, sp - argCount - 1, stack, base, argCount + 1);
+                        sp = base + argCount + 1;
+                        frameCount--;
+                    }
+                }
+                // fall through
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    boolean pushed = callValue(stack[sp - argCount - 1], argCount);
+                    stack = this.stack;
+                    sp = this.sp;
+                    if(pushed){
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    break;
+                }
+                case OpCode.IMPORT: {
+                    VMFunction script = (VMFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    // Runs the module's script on its first import; either way one value is left.
+                    if(!initializedModules.add(script)){
+                        stack[sp++] = null;
+                        break;
+                    }
+                    VMClosure closure = new VMClosure(script);
+                    stack[sp++] = closure;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    callClosure(closure, 0);
+                    stack = this.stack;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VMFunction function = (VMFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VMClosure closure = new VMClosure(function);
+                    for(int i = 0; i < closure.upvalues.length; i++){
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal
+                                ? captureUpvalue(base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    this.sp = sp;
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    sp = base;
+                    stack[sp++] = result;
+                    if(frameCount == 0){
+                        this.sp = sp;
+                        return result;
+                    }
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLASS: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp++] = new VMClass(name);
+                    break;
+                }
+                case OpCode.INHERIT: {
+                    if(!(stack[sp - 2] instanceof VMClass)){
+                        frame.ip = ip;
+                        throw error("Superclass must be a class");
+                    }
+                    VMClass superclass = (VMClass) stack[sp - 2];
+                    VMClass subclass = (VMClass) stack[--sp];
+                    // Copy-down inheritance: later METHOD instructions override.
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.initializer = superclass.initializer;
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VMClosure method = (VMClosure) stack[--sp];
+                    VMClass klass = (VMClass) stack[sp - 1];
+                    klass.methods.put(name, method);
+                    if(name.equals("init")) klass.initializer = method;
+                    break;
+                }
+            }
+        }
+    }
+
+    private VMBoundMethod bindMethod(Object receiver, VMClass klass, String name){
+        VMClosure method = klass.methods.get(name);
+        if(method == null){
+            throw error("Undefined property '" + name + "'.");
+        }
+        return new VMBoundMethod(receiver, method);
+    }
+
+    // Returns true when a new frame was pushed and the dispatch loop has to switch to it.
+    private boolean callValue(Object callee, int argCount){
+        if(callee instanceof VMClosure){
+            callClosure((VMClosure) callee, argCount);
+            return true;
+        }
+        if(callee instanceof VMBoundMethod){
+            VMBoundMethod bound = (VMBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            callClosure(bound.method, argCount);
+            return true;
+        }
+        if(callee instanceof VMClass){
+            VMClass klass = (VMClass) callee;
+            stack[sp - argCount - 1] = new VMInstance(klass);
+            if(klass.initializer != null){
+                callClosure(klass.initializer, argCount);
+                return true;
+            }
+            if(argCount != 0){
+                throw error("Expected 0 arguments but got " + argCount + ".");
+            }
+            return false;
+        }
+        if(callee instanceof LoxCallable){
+            LoxCallable function = (LoxCallable) callee;
+            if(argCount != function.arity()){
+                throw error("Expected " + function.arity() + " arguments but got " + argCount + ".");
+            }
+            Object result;
+            try {
+                result = callNative(function, argCount);
+            } catch (RuntimeError error){
+                // Natives raise errors without a line, the call's frame has it.
+                throw error(error.getMessage());
+            }
+            sp -= argCount + 1;
+            stack[sp++] = result;
+            return false;
+        }
+        throw error("Can only call functions and classes.");
+    }
+
+    // The operands of an index operator, once they are an array and a number.
+    private LoxArray indexed(Object array, Object index){
+        if(!(array instanceof LoxArray)) throw error("Only arrays can be indexed.");
+        if(!(index instanceof Double)) throw error("Array index must be a number.");
+        return (LoxArray) array;
+    }
+
+    // Natives take their arguments straight off the stack, see LoxCallable.
+    private Object callNative(LoxCallable function, int argCount){
+        int first = sp - argCount;
+        switch (argCount){
+            case 0: return function.call0(null);
+            case 1: return function.call1(null, stack[first]);
+            case 2: return function.call2(null, stack[first], stack[first + 1]);
+            case 3: return function.call3(null, stack[first], stack[first + 1], stack[first + 2]);
+            case 4: return function.call4(null, stack[first], stack[first + 1], stack[first + 2], stack[first + 3]);
+        }
+        return function.call(null, Arrays.copyOfRange(stack, first, sp));
+    }
+
+    private void callClosure(VMClosure closure, int argCount){
+        VMFunction function = closure.function;
+        if(argCount != function.arity){
+            throw error("Expected " + function.arity + " arguments but got " + argCount + ".");
+        }
+        int base = sp - argCount - 1;
+        if(base + function.maxStack >= stack.length){
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + function.maxStack + 1));
+        }
+        if(frameCount >= frames.length){
+            if(frameCount >= maxFrames) throw error("Stack overflow.");
+            frames = Arrays.copyOf(frames, Math.min(frameCount * 2, maxFrames));
+        }
+        CallFrame frame = frames[frameCount];
+        if(frame == null){
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+    }
+
+    private VMUpvalue captureUpvalue(int index){
+        VMUpvalue previous = null;
+        VMUpvalue upvalue = openUpvalues;
+        while(upvalue != null && upvalue.index > index){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue != null && upvalue.index == index) return upvalue;
+
+        VMUpvalue created = new VMUpvalue(this, index, upvalue);
+        if(previous == null){
+            openUpvalues = created;
+        } else{
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last){
+        while(openUpvalues != null && openUpvalues.index >= last){
+            VMUpvalue upvalue = openUpvalues;
+            openUpvalues = upvalue.next;
+            upvalue.close();
+        }
+    }
+
+    // Every frame has its ip saved, so the trace comes straight from the frames.
+    // Module bodies run at the top level, as in the Interpreter, so they add none.
+    private RuntimeError error(String message){
+        RuntimeError error = new RuntimeError(message, new Token(TokenType.EOF, "", null, line(frameCount - 1)));
+        for(int i = frameCount - 1; i > 0; i--){
+            String name = frames[i].closure.function.name;
+            if(name != null) error.leaving(name).calledFrom(line(i - 1));
+        }
+        return error;
+    }
+
+    private int line(int frame){
+        CallFrame callFrame = frames[frame];
+        return callFrame.closure.function.chunk.lines[callFrame.ip - 1];
+    }
+}
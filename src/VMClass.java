@@ -0,0 +1,17 @@
+import java.util.HashMap;
+import java.util.Map;
+
+public class VMClass {
+    final String name;
+    final Map<String, VMClosure> methods = new HashMap<>();
+    VMClosure initializer;
+
+    VMClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
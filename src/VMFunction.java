@@ -0,0 +1,19 @@
+// A compiled function prototype. Closures over it are created at runtime by OpCode.CLOSURE.
+public class VMFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity;
+    int upvalueCount;
+    // Highest operand-stack height the body can reach, slot 0 included.
+    int maxStack;
+
+    VMFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if(name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
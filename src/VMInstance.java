@@ -0,0 +1,16 @@
+import java.util.HashMap;
+import java.util.Map;
+
+public class VMInstance {
+    final VMClass klass;
+    final Map<String, Object> fields = new HashMap<>();
+
+    VMInstance(VMClass klass) {
+        this.klass = klass;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
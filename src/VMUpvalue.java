@@ -0,0 +1,32 @@
+// A captured variable. While open it aliases a slot on the VM stack, once the
+// slot goes out of scope the value is moved into the upvalue itself.
+public class VMUpvalue {
+    private final VM vm;
+    int index;
+    private Object closed;
+    VMUpvalue next;
+
+    VMUpvalue(VM vm, int index, VMUpvalue next) {
+        this.vm = vm;
+        this.index = index;
+        this.next = next;
+    }
+
+    Object get(){
+        if(index >= 0) return vm.stack[index];
+        return closed;
+    }
+
+    void set(Object value){
+        if(index >= 0){
+            vm.stack[index] = value;
+        } else{
+            closed = value;
+        }
+    }
+
+    void close(){
+        closed = vm.stack[index];
+        index = -1;
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs every program in test/conformance on the tree-walker, with and without
+// the Jit, and on the VM, and compares what each prints, runtime and compile
+// errors included, with the program's .expected file. Programs in
+// test/conformance/tasks spawn tasks or parallel workers, which the VM
+// rejects, so they only run on the tree-walker.
+class ConformanceTest {
+    private static final Path CORPUS = Paths.get("test", "conformance");
+    private static final Path TASKS = CORPUS.resolve("tasks");
+    // A program that hangs, say waiting for a write it never sees, fails instead.
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private enum Engine { INTERPRETER, INTERPRETER_NO_JIT, VM }
+
+    @TestFactory
+    Stream<DynamicTest> corpus() throws IOException {
+        return tests(CORPUS, Engine.values());
+    }
+
+    @TestFactory
+    Stream<DynamicTest> tasks() throws IOException {
+        return tests(TASKS, Engine.INTERPRETER, Engine.INTERPRETER_NO_JIT);
+    }
+
+    private static Stream<DynamicTest> tests(Path directory, Engine... engines) throws IOException {
+        List<Path> programs;
+        try (Stream<Path> files = Files.list(directory)){
+            programs = files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+        assertTrue(!programs.isEmpty(), "No programs in " + directory.toAbsolutePath());
+        return programs.stream().flatMap(program -> Stream.of(engines).map(engine ->
+                DynamicTest.dynamicTest(program.getFileName() + " " + engine, () -> check(program, engine))));
+    }
+
+    private static void check(Path program, Engine engine) throws IOException {
+        String name = program.getFileName().toString();
+        Path expected = program.resolveSibling(name.substring(0, name.length() - ".lox".length()) + ".expected");
+        assertTrue(Files.exists(expected), "Missing " + expected);
+        String actual = assertTimeoutPreemptively(TIMEOUT, () -> run(program, engine), name + " on " + engine);
+        assertEquals(normalize(Files.readString(expected)), normalize(actual), name + " on " + engine);
+    }
+
+    // What Main would print to standard output and standard error, in order:
+    // the engines flush their output before reporting a runtime error.
+    private static String run(Path program, Engine engine) throws IOException {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        Output output = new ChannelOutput(Channels.newChannel(printed), StandardCharsets.UTF_8);
+        ErrorReporter errors = new ErrorReporter(message ->
+                printed.writeBytes((message + "\n").getBytes(StandardCharsets.UTF_8)));
+
+        List<Stmt> statements = new Parser(new MyScanner(Files.readString(program), errors).scanTokens(), errors).parse();
+        if(!errors.hadError()) new Resolver(errors).resolve(statements);
+        if(!errors.hadError()) statements = new Optimizer().optimize(statements);
+        if(!errors.hadError()) new ModuleLoader(errors).load(statements, program.toAbsolutePath().getParent());
+        if(!errors.hadError()){
+            if(engine == Engine.VM){
+                VMFunction script = new Compiler(errors).compile(statements);
+                if(!errors.hadError()) new VM(output, errors).interpret(script);
+            } else{
+                Interpreter interpreter = new Interpreter(output, errors);
+                interpreter.jitEnabled = engine == Engine.INTERPRETER;
+                interpreter.interpret(statements);
+            }
+        }
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String normalize(String text){
+        return text.replace("\r\n", "\n").stripTrailing();
+    }
+}